@@ -0,0 +1,554 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Prime factorization of numbers beyond 64 bits, with trial division,
+ * Pollard's rho and Lenstra's elliptic curve method (ECM).
+ *
+ * Idea:
+ * Each method is good at finding a different size of factor, so they are
+ * tried in order of cost:
+ *  - Trial division with the sieve's primes below TRIAL_LIMIT.
+ *  - Pollard's rho, which needs about sqrt(p) steps to find a factor p, and
+ *    is given RHO_STEPS steps, enough for factors up to about 10^10.
+ *  - ECM, where the cost depends on the size of the factor and hardly on the
+ *    size of the number. A random curve finds p if the number of points on
+ *    it modulo p is smooth, so many curves are tried, with growing bounds.
+ * As soon as a cofactor fits in a long, it is finished by PollardRho, and a
+ * cofactor that is a probable prime is not split further.
+ *
+ * Implementation:
+ * ECM uses Montgomery curves By^2 = x^3 + Ax^2 + x with Suyama's
+ * parametrization, so that every curve has a group order divisible by 12.
+ * Only the x-coordinate is kept, in projective form X:Z, so no inverses are
+ * needed. Stage 1 multiplies the point by every prime power up to B1 with a
+ * Montgomery ladder. Stage 2 looks for a single extra prime q in (B1, B2],
+ * writing q = mD +- j, and multiplies together X_m Z_j - X_j Z_m for all such
+ * q, with the points jP precomputed and mP computed one step at a time. The
+ * bounds follow the usual table for the size of factor searched for.
+ *
+ * The curves of each level of the table are shared by the k threads of a
+ * WorkerPool. Every thread takes the next curve until the level is done or
+ * one of them has found a factor. An exception in a curve is thrown to the
+ * caller once the level is done.
+ *
+ * A 128-bit number given as two longs is trial divided in two longs, and
+ * handed to PollardRho as soon as the rest fits in a long. Only a rest that
+ * is still larger becomes a BigInteger.
+ */
+
+public class BigFactorizer {
+
+    /**
+     * Primes below this are found by trial division.
+     */
+    static final int TRIAL_LIMIT = 1 << 16;
+
+    /**
+     * Number of rho steps before moving on to ECM.
+     */
+    static final int RHO_STEPS = 1 << 17;
+
+    /**
+     * Number of rho steps between each gcd.
+     */
+    static final int BATCH = 128;
+
+    /**
+     * Stage 1 bound and number of curves for factors of about 15, 20, 25, 30
+     * and 35 digits. Stage 2 goes up to B2_FACTOR times the stage 1 bound.
+     */
+    static final int[] B1 = {2000, 11000, 50000, 250000, 1000000};
+    static final int[] CURVES = {25, 90, 300, 700, 1800};
+    static final int B2_FACTOR = 100;
+
+    /**
+     * Giant step length of stage 2, the product of the primes up to 11.
+     */
+    static final int D = 2310;
+
+    /**
+     * Numbers that fit in a long are factorized by PollardRho.
+     */
+    static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    /**
+     * The primes used for trial division.
+     */
+    static final int[] SMALL_PRIMES = new SieveOfErastothenes(TRIAL_LIMIT).getPrimes();
+
+
+    /**
+     * Finds all prime factors of 'number', with multiplicity. The factors are
+     * not passed on in any particular order. Factors that are only probable
+     * primes (see BigInteger.isProbablePrime) are passed on as primes.
+     * @param number The number to factorize, at least 1.
+     * @param k      Number of threads to run ECM curves on.
+     * @param action Receives each prime factor.
+     * @throws ArithmeticException If a composite cofactor has no factor ECM
+     *                             can find with the largest bounds.
+     */
+    public static void factor(BigInteger number, int k, Consumer<BigInteger> action) {
+        if (number.signum() <= 0)
+            throw new IllegalArgumentException("Can not factorize " + number);
+
+        factorLarge(trialDivision(number, action), k, action);
+    }
+
+
+    /**
+     * Finds all prime factors of an unsigned 128-bit number, given as two
+     * longs. The factors are not passed on in any particular order. The small
+     * factors are divided out of the two longs directly, and a rest that fits
+     * in a long is factorized by PollardRho without any BigInteger.
+     * @param high   The upper 64 bits.
+     * @param low    The lower 64 bits.
+     * @param k      Number of threads to run ECM curves on.
+     * @param action Receives each prime factor.
+     * @throws ArithmeticException If a composite cofactor has no factor ECM
+     *                             can find with the largest bounds.
+     */
+    public static void factor(long high, long low, int k, Consumer<BigInteger> action) {
+        if (high == 0 && low == 0)
+            throw new IllegalArgumentException("Can not factorize 0");
+
+        for (int i = 0; i < SMALL_PRIMES.length && (high != 0 || low < 0); i++) {
+            int prime = SMALL_PRIMES[i];
+
+            // Dividing by a prime below 2^16 in three steps, the upper long
+            // and then each half of the lower one, so that every partial
+            // dividend fits in a long
+            while (true) {
+                long r = Long.remainderUnsigned(high, prime);
+                long upper = (r << 32) | (low >>> 32);
+                long lower = ((upper % prime) << 32) | (low & 0xFFFFFFFFL);
+                if (lower % prime != 0)
+                    break;
+
+                action.accept(BigInteger.valueOf(prime));
+                high = Long.divideUnsigned(high, prime);
+                low = ((upper / prime) << 32) | (lower / prime);
+            }
+        }
+
+        if (high == 0 && low >= 0) {
+            if (low > 1)
+                PollardRho.factor(low, factor -> action.accept(BigInteger.valueOf(factor)));
+            return;
+        }
+
+        byte[] bytes = ByteBuffer.allocate(16).putLong(high).putLong(low).array();
+        factorLarge(new BigInteger(1, bytes), k, action);
+    }
+
+
+    /**
+     * Divides out all prime factors below TRIAL_LIMIT. The primes are grouped
+     * into products that fit in a long, so that each group needs only one
+     * BigInteger division.
+     * @param  number The number to divide.
+     * @param  action Receives each prime factor found.
+     * @return        The number with all small prime factors divided out.
+     */
+    private static BigInteger trialDivision(BigInteger number, Consumer<BigInteger> action) {
+        int i = 0;
+
+        while (i < SMALL_PRIMES.length && number.compareTo(BigInteger.ONE) > 0) {
+            int from = i;
+            long product = 1;
+            while (i < SMALL_PRIMES.length && product <= Long.MAX_VALUE / SMALL_PRIMES[i])
+                product *= SMALL_PRIMES[i++];
+
+            long remainder = number.mod(BigInteger.valueOf(product)).longValue();
+
+            for (int j = from; j < i; j++) {
+                if (remainder % SMALL_PRIMES[j] != 0)
+                    continue;
+
+                BigInteger prime = BigInteger.valueOf(SMALL_PRIMES[j]);
+                BigInteger[] division = number.divideAndRemainder(prime);
+                while (division[1].signum() == 0) {
+                    action.accept(prime);
+                    number = division[0];
+                    division = number.divideAndRemainder(prime);
+                }
+            }
+        }
+        return number;
+    }
+
+
+    /**
+     * Factorizes a number without prime factors below TRIAL_LIMIT.
+     * @param number The number to factorize.
+     * @param k      Number of threads to run ECM curves on.
+     * @param action Receives each prime factor.
+     */
+    private static void factorLarge(BigInteger number, int k, Consumer<BigInteger> action) {
+        if (number.equals(BigInteger.ONE))
+            return;
+
+        if (number.compareTo(LONG_MAX) <= 0) {
+            PollardRho.factor(number.longValue(), factor -> action.accept(BigInteger.valueOf(factor)));
+            return;
+        }
+
+        if (number.isProbablePrime(64)) {
+            action.accept(number);
+            return;
+        }
+
+        BigInteger divisor;
+        BigInteger root = number.sqrt();
+
+        if (root.multiply(root).equals(number))
+            divisor = root;
+        else if ((divisor = rho(number, RHO_STEPS)) == null)
+            divisor = ecm(number, k);
+
+        factorLarge(divisor, k, action);
+        factorLarge(number.divide(divisor), k, action);
+    }
+
+
+    /**
+     * Looks for a divisor of an odd composite number with Brent's variant of
+     * Pollard's rho, using f(x) = x^2 + 1.
+     * @param  number An odd composite number.
+     * @param  steps  The largest number of steps to take.
+     * @return        A divisor d of 'number' with 1 < d < number, or null if
+     *                none was found in time.
+     */
+    static BigInteger rho(BigInteger number, int steps) {
+        BigInteger y = BigInteger.TWO, x = y, saved = y, product = BigInteger.ONE;
+        BigInteger divisor = BigInteger.ONE;
+        int taken = 0;
+
+        for (int r = 1; divisor.equals(BigInteger.ONE); r <<= 1) {
+            if (taken > steps)
+                return null;
+
+            x = y;
+            for (int i = 0; i < r; i++)
+                y = y.multiply(y).add(BigInteger.ONE).mod(number);
+
+            for (int j = 0; j < r && divisor.equals(BigInteger.ONE); j += BATCH) {
+                saved = y;
+                for (int i = 0; i < Math.min(BATCH, r - j); i++) {
+                    y = y.multiply(y).add(BigInteger.ONE).mod(number);
+                    product = product.multiply(x.subtract(y)).mod(number);
+                }
+                divisor = product.gcd(number);
+            }
+            taken += 2 * r;
+        }
+
+        // The batch overshot the cycle, so redo it one step at a time
+        if (divisor.equals(number)) {
+            do {
+                saved = saved.multiply(saved).add(BigInteger.ONE).mod(number);
+                divisor = x.subtract(saved).gcd(number);
+            } while (divisor.equals(BigInteger.ONE));
+        }
+
+        return divisor.equals(number) ? null : divisor;
+    }
+
+
+    /**
+     * Finds a divisor of a composite number with ECM, running the curves of
+     * each level of bounds on the shared WorkerPool of k threads, or on the
+     * calling thread for k = 1. An exception thrown by a curve is thrown
+     * here once the level is done.
+     * @param  number A composite number that is not a perfect square.
+     * @param  k      Number of threads.
+     * @return        A divisor d of 'number' with 1 < d < number.
+     * @throws ArithmeticException If no curve finds a divisor.
+     */
+    static BigInteger ecm(BigInteger number, int k) {
+        AtomicReference<BigInteger> found = new AtomicReference<>();
+        AtomicLong sigma = new AtomicLong(6);
+        WorkerPool pool = (k == 1) ? null : WorkerPool.common(k);
+
+        for (int level = 0; level < B1.length; level++) {
+            int b1 = B1[level];
+            long b2 = (long) b1 * B2_FACTOR;
+            long last = sigma.get() + CURVES[level];
+
+            // Making sure the primes up to B2 are found before the threads start
+            RangeSieve.basePrimes((int) b2);
+
+            IntConsumer curves = thread -> {
+                for (long s = sigma.getAndIncrement(); s < last && found.get() == null; s = sigma.getAndIncrement()) {
+                    BigInteger divisor = curve(number, s, b1, b2, found);
+                    if (divisor != null)
+                        found.compareAndSet(null, divisor);
+                }
+            };
+
+            if (pool == null)
+                curves.accept(0);
+            else
+                pool.run(curves);
+
+            if (found.get() != null)
+                return found.get();
+        }
+
+        throw new ArithmeticException("ECM found no factor of " + number);
+    }
+
+
+    /**
+     * Runs stage 1 and stage 2 of ECM on one curve.
+     * @param  number The number to factorize.
+     * @param  sigma  The parameter of the curve, at least 6.
+     * @param  b1     The stage 1 bound.
+     * @param  b2     The stage 2 bound.
+     * @param  found  Set once any thread has found a divisor, which makes
+     *                this curve give up.
+     * @return        A divisor d of 'number' with 1 < d < number, or null if
+     *                this curve did not find one.
+     */
+    static BigInteger curve(BigInteger number, long sigma, int b1, long b2, AtomicReference<BigInteger> found) {
+        Curve curve = new Curve(number, sigma);
+        if (curve.a24 == null)
+            return curve.divisor;
+
+        BigInteger[] point = curve.start;
+        int[] primes = RangeSieve.basePrimes((int) b2);
+
+        // Stage 1: multiplying by every prime power up to b1, starting with 2
+        long power = 2;
+        while (power * 2 <= b1)
+            power *= 2;
+        point = curve.multiply(point, power);
+
+        for (int i = 0; i < primes.length && primes[i] <= b1; i++) {
+            if (found.get() != null)
+                return null;
+
+            power = primes[i];
+            while (power * primes[i] <= b1)
+                power *= primes[i];
+            point = curve.multiply(point, power);
+        }
+
+        BigInteger divisor = point[1].gcd(number);
+        if (!divisor.equals(BigInteger.ONE))
+            return divisor.equals(number) ? null : divisor;
+
+        return stage2(curve, point, primes, b1, b2, found);
+    }
+
+
+    /**
+     * Stage 2 of ECM, which finds a divisor if the order of the point from
+     * stage 1 is a single prime q in (b1, b2].
+     * @param  curve  The curve.
+     * @param  point  The point after stage 1.
+     * @param  primes The odd primes up to at least b2.
+     * @param  b1     The stage 1 bound.
+     * @param  b2     The stage 2 bound.
+     * @param  found  Set once any thread has found a divisor.
+     * @return        A divisor d of the number with 1 < d < number, or null.
+     */
+    private static BigInteger stage2(Curve curve, BigInteger[] point, int[] primes,
+                                     int b1, long b2, AtomicReference<BigInteger> found) {
+        BigInteger number = curve.n;
+
+        // Baby steps: jP for odd j up to D / 2
+        BigInteger[][] baby = new BigInteger[D / 2 + 1][];
+        BigInteger[] twice = curve.twice(point);
+        baby[1] = point;
+        baby[3] = curve.add(twice, point, point);
+        for (int j = 5; j <= D / 2; j += 2)
+            baby[j] = curve.add(baby[j - 2], twice, baby[j - 4]);
+
+        // Giant steps: mDP, starting at the m of the first prime above b1
+        int first = 0;
+        while (first < primes.length && primes[first] <= b1)
+            first++;
+        if (first == primes.length)
+            return null;
+
+        long m = (primes[first] + D / 2) / D;
+        BigInteger[] step = curve.multiply(point, D);
+        BigInteger[] previous = (m > 1) ? curve.multiply(point, (m - 1) * D) : null;
+        BigInteger[] giant = curve.multiply(point, m * D);
+        BigInteger product = BigInteger.ONE;
+
+        for (int i = first; i < primes.length && primes[i] <= b2; i++) {
+            long q = primes[i];
+
+            while (q > m * D + D / 2) {
+                // From DP to 2DP the difference would be 0, so it is a doubling
+                BigInteger[] next = (previous == null) ? curve.twice(giant) : curve.add(giant, step, previous);
+                previous = giant;
+                giant = next;
+                m++;
+
+                if ((m & 63) == 0 && found.get() != null)
+                    return null;
+            }
+
+            // q = mD +- j, so qP is the point at infinity exactly when mDP
+            // and jP have the same x-coordinate
+            BigInteger[] j = baby[(int) Math.abs(q - m * D)];
+            BigInteger difference = giant[0].multiply(j[1]).subtract(j[0].multiply(giant[1]));
+            product = product.multiply(difference).mod(number);
+        }
+
+        BigInteger divisor = product.gcd(number);
+        if (divisor.equals(BigInteger.ONE) || divisor.equals(number))
+            return null;
+        return divisor;
+    }
+
+
+    /**
+     * A Montgomery curve modulo a number, with the arithmetic on projective
+     * x-coordinates. A point is an array {X, Z}.
+     */
+    static class Curve {
+        /**
+         * Declaring local variables for each curve
+         */
+        BigInteger n, a24, divisor;
+        BigInteger[] start;
+
+        /**
+         * Constructor that sets up the curve and its starting point from
+         * Suyama's parametrization. If setting it up needs the inverse of a
+         * number that shares a factor with n, a24 is left null, and the
+         * factor is kept in 'divisor' unless it is n itself.
+         * @param n     The modulus.
+         * @param sigma The parameter of the curve.
+         */
+        Curve(BigInteger n, long sigma) {
+            this.n = n;
+            BigInteger s = BigInteger.valueOf(sigma);
+            BigInteger u = s.multiply(s).subtract(BigInteger.valueOf(5)).mod(n);
+            BigInteger v = s.shiftLeft(2).mod(n);
+
+            BigInteger u3 = u.pow(3).mod(n);
+            start = new BigInteger[] {u3, v.pow(3).mod(n)};
+
+            // (A + 2) / 4 = (v - u)^3 (3u + v) / (16 u^3 v)
+            BigInteger numerator = v.subtract(u).pow(3).multiply(u.multiply(BigInteger.valueOf(3)).add(v)).mod(n);
+            BigInteger denominator = u3.multiply(v).shiftLeft(4).mod(n);
+
+            BigInteger g = denominator.gcd(n);
+            if (!g.equals(BigInteger.ONE)) {
+                divisor = g.equals(n) ? null : g;
+                return;
+            }
+            a24 = numerator.multiply(denominator.modInverse(n)).mod(n);
+        }
+
+        /**
+         * Doubles a point.
+         * @param  p The point.
+         * @return   2p.
+         */
+        BigInteger[] twice(BigInteger[] p) {
+            BigInteger sum = p[0].add(p[1]);
+            BigInteger difference = p[0].subtract(p[1]);
+            BigInteger t1 = sum.multiply(sum).mod(n);
+            BigInteger t2 = difference.multiply(difference).mod(n);
+            BigInteger t3 = t1.subtract(t2);
+
+            return new BigInteger[] {
+                t1.multiply(t2).mod(n),
+                t3.multiply(t2.add(a24.multiply(t3))).mod(n)
+            };
+        }
+
+        /**
+         * Adds two points whose difference is known.
+         * @param  p          The first point.
+         * @param  q          The second point.
+         * @param  difference The point p - q.
+         * @return            p + q.
+         */
+        BigInteger[] add(BigInteger[] p, BigInteger[] q, BigInteger[] difference) {
+            BigInteger u = p[0].subtract(p[1]).multiply(q[0].add(q[1]));
+            BigInteger v = p[0].add(p[1]).multiply(q[0].subtract(q[1]));
+            BigInteger sum = u.add(v);
+            BigInteger diff = u.subtract(v);
+
+            return new BigInteger[] {
+                difference[1].multiply(sum.multiply(sum).mod(n)).mod(n),
+                difference[0].multiply(diff.multiply(diff).mod(n)).mod(n)
+            };
+        }
+
+        /**
+         * Multiplies a point by a scalar with the Montgomery ladder.
+         * @param  p The point.
+         * @param  m The scalar, at least 1.
+         * @return   mp.
+         */
+        BigInteger[] multiply(BigInteger[] p, long m) {
+            if (m == 1)
+                return p;
+
+            // Keeping r0 = tp and r1 = (t + 1)p for the leading bits t of m
+            BigInteger[] r0 = p, r1 = twice(p);
+
+            for (int bit = 62 - Long.numberOfLeadingZeros(m); bit >= 0; bit--) {
+                if (((m >>> bit) & 1) == 1) {
+                    r0 = add(r1, r0, p);
+                    r1 = twice(r1);
+                } else {
+                    r1 = add(r1, r0, p);
+                    r0 = twice(r0);
+                }
+            }
+            return r0;
+        }
+    }
+
+
+    /**
+     * Expects a positive integer and optionally a number of cores as
+     * arguments.
+     * @param args Contains the number to factorize and the number of cores
+     * to utilize.
+     */
+    public static void main(String[] args) {
+
+        BigInteger number;
+        int k;
+
+        try {
+            number = new BigInteger(args[0]);
+            k = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            if (number.signum() <= 0 || k <= 0) throw new Exception();
+        } catch(Exception e) {
+            System.out.println("Correct use of program is: " +
+            "java BigFactorizer <number> <k> where <number> and <k> are positive integers.");
+            return;
+        }
+
+        List<BigInteger> factors = Collections.synchronizedList(new ArrayList<>());
+
+        long start = System.nanoTime();
+        factor(number, k, factors::add);
+        long end = System.nanoTime();
+
+        Collections.sort(factors);
+        StringBuilder out = new StringBuilder();
+        for (BigInteger factor : factors)
+            out.append((out.length() == 0) ? "" : "*").append(factor);
+
+        System.out.printf("%s : %s (%.2f ms)%n", number, out, (end - start) / 1000000.0);
+    }
+}
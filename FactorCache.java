@@ -0,0 +1,334 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe, size bounded cache of factorizations, keyed by the number,
+ * which evicts the least recently used number when it is full.
+ *
+ * Idea:
+ * When the same numbers are factorized again, or numbers that share a large
+ * cofactor, most of the work has been done before. Besides each number, the
+ * cache therefore also keeps every cofactor left after dividing out its
+ * smallest prime factors one by one. A later factorization that reaches one
+ * of those cofactors can stop there and take the rest of the factors from
+ * the cache.
+ *
+ * Implementation:
+ * The cache is split into up to STRIPES stripes by a hash of the number,
+ * each with its own lock, so threads working on different numbers rarely wait for each
+ * other. A stripe keeps its entries in fixed slots with primitive long keys,
+ * found through a chained hash table of int links, and ordered from least to
+ * most recently used by an intrusive doubly linked list of int links, like
+ * the buckets of RangeSieve. A lookup allocates nothing. The only allocation
+ * is the array of factors of a new entry. A cache smaller than STRIPES has
+ * fewer stripes, so it never holds more entries than its capacity.
+ */
+
+class FactorCache {
+
+    /**
+     * Largest number of independently locked parts of the cache.
+     */
+    static final int STRIPES = 16;
+
+    /**
+     * Declaring all the global variables
+     */
+    Stripe[] stripes;
+    LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param capacity The largest number of entries to keep, at least 1.
+     */
+    FactorCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Can not make a cache of size " + capacity);
+
+        // A power of two of stripes, each with room for at least one entry,
+        // and the capacity shared out between them
+        int count = Integer.highestOneBit(Math.min(capacity, STRIPES));
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new Stripe((capacity + count - 1 - i) / count);
+    }
+
+
+    /**
+     * Looks up the factors of a number, and marks it as recently used.
+     * @param  number  The number to look up.
+     * @param  factors Receives the prime factors in increasing order. 64
+     *                 entries are always enough.
+     * @return         The number of factors, or -1 if the number is not in
+     *                 the cache.
+     */
+    int get(long number, long[] factors) {
+        Stripe stripe = stripes[stripe(number)];
+        int count;
+
+        synchronized (stripe) {
+            count = stripe.get(number, factors);
+        }
+
+        if (count < 0)
+            misses.increment();
+        else
+            hits.increment();
+        return count;
+    }
+
+
+    /**
+     * Stores the factors of a number, and of every cofactor left after
+     * dividing out its smallest prime factors one by one.
+     * @param number  The number.
+     * @param factors The prime factors of 'number' in increasing order.
+     * @param count   The number of factors.
+     */
+    void put(long number, long[] factors, int count) {
+        long cofactor = number;
+
+        for (int i = 0; i < count; i++) {
+            Stripe stripe = stripes[stripe(cofactor)];
+
+            synchronized (stripe) {
+                if (stripe.put(cofactor, Arrays.copyOfRange(factors, i, count)))
+                    evictions.increment();
+            }
+            cofactor /= factors[i];
+        }
+    }
+
+
+    /**
+     * Removes every entry. The counters are kept.
+     */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Finds the stripe of a number, from a mix of all its bits.
+     * @param  number The number.
+     * @return        The index of its stripe.
+     */
+    private int stripe(long number) {
+        return (int) (mix(number) >>> 60) & (stripes.length - 1);
+    }
+
+
+    /**
+     * Spreads the bits of a number over the whole long, using the finalizer
+     * of SplitMix64.
+     * @param  number The number.
+     * @return        A well mixed hash of the number.
+     */
+    static long mix(long number) {
+        number = (number ^ (number >>> 30)) * 0xBF58476D1CE4E5B9L;
+        number = (number ^ (number >>> 27)) * 0x94D049BB133111EBL;
+        return number ^ (number >>> 31);
+    }
+
+
+    /**
+     * Finds the number of lookups that found their number.
+     * @return The number of hits.
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+
+    /**
+     * Finds the number of lookups that did not find their number.
+     * @return The number of misses.
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+
+    /**
+     * Finds the number of entries evicted to make room for new ones.
+     * @return The number of evictions.
+     */
+    long evictions() {
+        return evictions.sum();
+    }
+
+
+    /**
+     * One part of the cache. Not thread safe by itself.
+     */
+    static class Stripe {
+        /**
+         * Declaring local variables for each stripe. Slot i holds keys[i]
+         * and values[i]. chain[i] is the next slot in the same hash bucket,
+         * and older[i] and newer[i] are the neighbours of slot i in the order
+         * of use. -1 marks the end of a list.
+         */
+        long[] keys;
+        long[][] values;
+        int[] buckets, chain, older, newer;
+        int size, eldest = -1, youngest = -1;
+
+        /**
+         * Constructor that initializes local stripe variables
+         * @param capacity The largest number of entries in the stripe.
+         */
+        Stripe(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity][];
+            chain = new int[capacity];
+            older = new int[capacity];
+            newer = new int[capacity];
+            buckets = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+            Arrays.fill(buckets, -1);
+        }
+
+        /**
+         * Removes every entry of the stripe.
+         */
+        void clear() {
+            Arrays.fill(values, null);
+            Arrays.fill(buckets, -1);
+            size = 0;
+            eldest = -1;
+            youngest = -1;
+        }
+
+        /**
+         * Looks up a number and moves it to the most recently used end.
+         * @param  number  The number.
+         * @param  factors Receives the factors.
+         * @return         The number of factors, or -1 if not found.
+         */
+        int get(long number, long[] factors) {
+            int slot = find(number);
+            if (slot < 0)
+                return -1;
+
+            unlink(slot);
+            link(slot);
+
+            long[] value = values[slot];
+            System.arraycopy(value, 0, factors, 0, value.length);
+            return value.length;
+        }
+
+        /**
+         * Stores a number, evicting the least recently used one if the
+         * stripe is full.
+         * @param  number  The number.
+         * @param  factors Its factors.
+         * @return         A boolean; true if an entry was evicted.
+         */
+        boolean put(long number, long[] factors) {
+            int slot = find(number);
+            boolean evicted = false;
+
+            if (slot >= 0) {
+                unlink(slot);
+            } else if (size < keys.length) {
+                slot = size++;
+                insert(slot, number);
+            } else {
+                slot = eldest;
+                unlink(slot);
+                remove(slot);
+                insert(slot, number);
+                evicted = true;
+            }
+
+            values[slot] = factors;
+            link(slot);
+            return evicted;
+        }
+
+        /**
+         * Finds the bucket of a number.
+         * @param  number The number.
+         * @return        The index of its bucket.
+         */
+        private int bucket(long number) {
+            return (int) mix(number) & (buckets.length - 1);
+        }
+
+        /**
+         * Finds the slot holding a number.
+         * @param  number The number.
+         * @return        The slot, or -1 if the number is not stored.
+         */
+        private int find(long number) {
+            for (int slot = buckets[bucket(number)]; slot >= 0; slot = chain[slot])
+                if (keys[slot] == number)
+                    return slot;
+            return -1;
+        }
+
+        /**
+         * Puts a number into a free slot and into its hash bucket.
+         * @param slot   The slot.
+         * @param number The number.
+         */
+        private void insert(int slot, long number) {
+            int bucket = bucket(number);
+            keys[slot] = number;
+            chain[slot] = buckets[bucket];
+            buckets[bucket] = slot;
+        }
+
+        /**
+         * Takes a slot out of its hash bucket.
+         * @param slot The slot.
+         */
+        private void remove(int slot) {
+            int bucket = bucket(keys[slot]);
+
+            if (buckets[bucket] == slot) {
+                buckets[bucket] = chain[slot];
+                return;
+            }
+            int previous = buckets[bucket];
+            while (chain[previous] != slot)
+                previous = chain[previous];
+            chain[previous] = chain[slot];
+        }
+
+        /**
+         * Adds a slot at the most recently used end of the order of use.
+         * @param slot The slot.
+         */
+        private void link(int slot) {
+            older[slot] = youngest;
+            newer[slot] = -1;
+            if (youngest >= 0)
+                newer[youngest] = slot;
+            else
+                eldest = slot;
+            youngest = slot;
+        }
+
+        /**
+         * Takes a slot out of the order of use.
+         * @param slot The slot.
+         */
+        private void unlink(int slot) {
+            if (older[slot] >= 0)
+                newer[older[slot]] = newer[slot];
+            else
+                eldest = newer[slot];
+
+            if (newer[slot] >= 0)
+                older[newer[slot]] = older[slot];
+            else
+                youngest = older[slot];
+        }
+    }
+}
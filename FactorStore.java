@@ -0,0 +1,109 @@
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Stores the prime factors of a fixed set of numbers in flat primitive
+ * arrays, and writes them in the same format as Oblig3.
+ *
+ * Idea:
+ * Oblig3 keeps a TreeMap<Long, LinkedList<Long>>, so every factor becomes a
+ * boxed Long in a new list node, and it is not thread safe. Here every number
+ * instead owns a fixed block of MAX_FACTORS slots in one long[], since a
+ * number below 2^63 never has more than 62 prime factors. A thread adding a
+ * factor claims the next slot of the number with an atomic increment of its
+ * count, so any number of threads can add factors at the same time without a
+ * lock, and nothing is allocated per factor.
+ *
+ * The numbers are identified by their index in the array given to the
+ * constructor.
+ */
+
+class FactorStore {
+
+    /**
+     * Number of factor slots per number. 2^63 is the largest power of two a
+     * long can not hold, so no number has 64 prime factors.
+     */
+    static final int MAX_FACTORS = 64;
+
+    /**
+     * Declaring all the global variables
+     */
+    long[] numbers, factors;
+    AtomicIntegerArray counts;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param numbers The numbers whose factors are stored.
+     */
+    FactorStore(long[] numbers) {
+        this.numbers = numbers;
+        factors = new long[numbers.length * MAX_FACTORS];
+        counts = new AtomicIntegerArray(numbers.length);
+    }
+
+
+    /**
+     * Adds a factor to a number. Safe to call from several threads at once.
+     * @param index  The index of the number.
+     * @param factor The factor found.
+     */
+    void add(int index, long factor) {
+        factors[index * MAX_FACTORS + counts.getAndIncrement(index)] = factor;
+    }
+
+
+    /**
+     * Finds the number of factors added to a number.
+     * @param  index The index of the number.
+     * @return       The number of factors.
+     */
+    int count(int index) {
+        return counts.get(index);
+    }
+
+
+    /**
+     * Gets one of the factors of a number, in the order they were added.
+     * @param  index The index of the number.
+     * @param  i     The index of the factor, less than count(index).
+     * @return       The factor.
+     */
+    long factor(int index, int i) {
+        return factors[index * MAX_FACTORS + i];
+    }
+
+
+    /**
+     * Writes the factors to a file named "Factors_n_variation.txt", with the
+     * numbers in increasing order and the factors of each number sorted, in
+     * the same format as Oblig3. Numbers without factors are left out. Must
+     * only be called once all threads are done adding factors.
+     * @param n         The n given at startup.
+     * @param variation Separates the sequential solution from the parallel.
+     */
+    void write(int n, String variation) {
+        write(n, variation, false);
+    }
+
+
+    /**
+     * Writes the factors to a file named "Factors_n_variation.txt", or to
+     * "Factors_n_variation.bin" in the binary format of FactorWriter. Must
+     * only be called once all threads are done adding factors.
+     * @param n         The n given at startup.
+     * @param variation Separates the sequential solution from the parallel.
+     * @param binary    A boolean; true for the binary format.
+     */
+    void write(int n, String variation, boolean binary) {
+        String filename = "Factors_" + n + "_" + variation + (binary ? ".bin" : ".txt");
+
+        try (FactorWriter writer = new FactorWriter(Path.of(filename), n, numbers, binary)) {
+            for (int i = 0; i < numbers.length; i++)
+                writer.write(i, factors, i * MAX_FACTORS, count(i));
+        } catch (Exception e) {
+            System.out.printf("Got exception when trying to write file %s : %s%n", filename, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes factorizations to a file as they complete, in the same text format
+ * as Oblig3.writeFactors, or in a compact binary format.
+ *
+ * Idea:
+ * Oblig3 can only write once every factor sits in a TreeMap, and builds each
+ * line by concatenating strings, which copies the line once per factor. Here
+ * each number can be handed over as soon as its factorization is done, and
+ * its line is formatted digit by digit straight into one reusable byte
+ * buffer. The buffer is written through a FileChannel whenever it is nearly
+ * full, so the file is written in large chunks and nothing is allocated per
+ * line.
+ *
+ * The numbers must appear in increasing order in the file, but may complete
+ * in any order. The writer is therefore given all the numbers up front, and a
+ * number that completes before the ones below it waits in a pending slot
+ * until they are written.
+ *
+ * The text format is byte for byte the one of Oblig3: a header line, then one
+ * line "number : f1*f2*...*fm" per number with its factors in increasing
+ * order. Numbers without factors are left out. The binary format is the int
+ * MAGIC and n, then per number the number, the count m and the m factors in
+ * increasing order. Everything after MAGIC is a variable length integer of 7
+ * bits per byte, lowest first, where the top bit is set on all but the last
+ * byte, so a small factor takes one byte instead of eight.
+ */
+
+class FactorWriter implements Closeable {
+
+    /**
+     * First four bytes of a binary file, "FACT" in ASCII.
+     */
+    static final int MAGIC = 0x46414354;
+
+    /**
+     * Size of the byte buffer, and the room a buffer must have left before a
+     * line is formatted into it. 64 factors of 19 digits and a number fit in
+     * less than 2 kB.
+     */
+    static final int BUFFER_BYTES = 1 << 16, LINE_BYTES = 1 << 11;
+
+    /**
+     * Declaring all the global variables
+     */
+    FileChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    boolean binary;
+    long[] numbers, sorted, scratch = new long[FactorStore.MAX_FACTORS];
+    long[][] pending;
+    byte[] digits = new byte[20], separator = System.lineSeparator().getBytes();
+    int next;
+
+
+    /**
+     * Constructor that opens the file and writes the header.
+     * @param  path        The file to write, replaced if it exists.
+     * @param  n           The n given at startup.
+     * @param  numbers     The distinct numbers whose factors will be written.
+     * @param  binary      A boolean; true for the binary format.
+     * @throws IOException If the file can not be opened or written.
+     */
+    FactorWriter(Path path, int n, long[] numbers, boolean binary) throws IOException {
+        this.numbers = numbers;
+        this.binary = binary;
+        sorted = numbers.clone();
+        Arrays.sort(sorted);
+        pending = new long[numbers.length][];
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        if (binary) {
+            buffer.putInt(MAGIC);
+            putVarLong(n);
+        } else {
+            putAscii("Factors for n=");
+            putNumber(n);
+            buffer.put((byte) '\n');
+        }
+    }
+
+
+    /**
+     * Hands over the factors of a number. The factors are copied, so the
+     * array can be reused as soon as this returns. Safe to call from several
+     * threads at once.
+     * @param  index       The index of the number in the array given to the
+     *                     constructor.
+     * @param  factors     Holds the prime factors, in any order.
+     * @param  from        The index of the first factor in 'factors'.
+     * @param  count       The number of factors.
+     * @throws IOException If the file can not be written.
+     */
+    synchronized void write(int index, long[] factors, int from, int count) throws IOException {
+        int rank = Arrays.binarySearch(sorted, numbers[index]);
+
+        if (rank != next) {
+            pending[rank] = Arrays.copyOfRange(factors, from, from + count);
+            return;
+        }
+
+        writeLine(sorted[next++], factors, from, count);
+
+        // Writing the numbers that completed early and are now next in line
+        while (next < pending.length && pending[next] != null) {
+            long[] waiting = pending[next];
+            pending[next] = null;
+            writeLine(sorted[next++], waiting, 0, waiting.length);
+        }
+    }
+
+
+    /**
+     * Writes out what is left in the buffer and closes the file.
+     * @throws IOException If the file can not be written.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Formats the line of one number into the buffer, and writes the buffer
+     * to the file first if the line might not fit.
+     * @param  number      The number.
+     * @param  factors     Holds its prime factors.
+     * @param  from        The index of the first factor in 'factors'.
+     * @param  count       The number of factors.
+     * @throws IOException If the file can not be written.
+     */
+    private void writeLine(long number, long[] factors, int from, int count) throws IOException {
+        if (count == 0)
+            return;
+        if (buffer.remaining() < LINE_BYTES)
+            flush();
+
+        System.arraycopy(factors, from, scratch, 0, count);
+        Arrays.sort(scratch, 0, count);
+
+        if (binary) {
+            putVarLong(number);
+            putVarLong(count);
+            for (int i = 0; i < count; i++)
+                putVarLong(scratch[i]);
+            return;
+        }
+
+        putNumber(number);
+        putAscii(" : ");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                buffer.put((byte) '*');
+            putNumber(scratch[i]);
+        }
+        buffer.put(separator);
+    }
+
+
+    /**
+     * Writes the decimal digits of a non-negative number into the buffer.
+     * @param number The number.
+     */
+    private void putNumber(long number) {
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+
+        while (length > 0)
+            buffer.put(digits[--length]);
+    }
+
+
+    /**
+     * Writes a non-negative number into the buffer as a variable length
+     * integer, 7 bits at a time.
+     * @param number The number.
+     */
+    private void putVarLong(long number) {
+        while (number >= 0x80) {
+            buffer.put((byte) (number | 0x80));
+            number >>>= 7;
+        }
+        buffer.put((byte) number);
+    }
+
+
+    /**
+     * Writes a string of ASCII characters into the buffer.
+     * @param text The string.
+     */
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++)
+            buffer.put((byte) text.charAt(i));
+    }
+
+
+    /**
+     * Writes the buffer to the file and empties it.
+     * @throws IOException If the file can not be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe service that factorizes numbers for any number of callers,
+ * gathering the requests that arrive at the same time into batches.
+ *
+ * Idea:
+ * Main factorizes one fixed set of numbers through static fields, so it can
+ * not serve several callers at once. Here every caller submits a number and
+ * gets a CompletableFuture for its factors back. One dispatcher thread takes
+ * all requests waiting in the queue as one batch, up to a largest batch
+ * size, and the batch is factorized by the k threads of a WorkerPool. The
+ * number of threads doing the CPU bound work is therefore fixed at k, no
+ * matter how many callers there are. A request arriving to an empty queue
+ * is started right away, and under load the batches grow by themselves,
+ * so there is no waiting to fill a batch.
+ *
+ * Implementation:
+ * The numbers of a batch are factorized with PollardRho into a FactorStore,
+ * with thread i taking every k-th number, like RhoFactorizationWorker in
+ * Main. The futures are completed by the dispatcher once the whole batch is
+ * done, with the factors in increasing order. The service keeps the number
+ * of requests waiting, the number of batches, and the sizes of the batches.
+ */
+
+class FactorizationService implements AutoCloseable {
+
+    /**
+     * Declaring all the global variables
+     */
+    int maxBatch;
+    WorkerPool pool;
+    LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    Thread dispatcher;
+    volatile boolean closed = false;
+    LongAdder requests = new LongAdder();
+    AtomicLong batches = new AtomicLong(), batched = new AtomicLong(), largestBatch = new AtomicLong();
+
+
+    /**
+     * Constructor that starts the threads of the service.
+     * @param k        Number of threads to factorize with.
+     * @param maxBatch The largest number of requests in one batch.
+     */
+    FactorizationService(int k, int maxBatch) {
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("Can not make batches of " + maxBatch + " requests");
+
+        this.maxBatch = maxBatch;
+        pool = new WorkerPool(k);
+        dispatcher = new Thread(this::dispatch, "factorization-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+
+    /**
+     * Submits a number to be factorized. Safe to call from any thread.
+     * @param  number The number to factorize, at least 1.
+     * @return        A future that receives the prime factors of 'number' in
+     *                increasing order, empty for 1.
+     */
+    CompletableFuture<long[]> submit(long number) {
+        if (number < 1)
+            throw new IllegalArgumentException("Can not factorize " + number);
+
+        Request request = new Request(number);
+        queue.add(request);
+        requests.increment();
+
+        // Failing the request ourselves if close() may have missed it
+        if (closed && queue.remove(request))
+            request.future.completeExceptionally(new IllegalStateException("The service is closed"));
+        return request.future;
+    }
+
+
+    /**
+     * Stops taking requests, fails the ones still waiting and stops the
+     * threads. A batch that is running is finished first.
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdown();
+
+        for (Request request; (request = queue.poll()) != null; )
+            request.future.completeExceptionally(new IllegalStateException("The service is closed"));
+    }
+
+
+    /**
+     * Finds the number of requests waiting for a batch.
+     * @return The queue depth.
+     */
+    int queueDepth() {
+        return queue.size();
+    }
+
+
+    /**
+     * Finds the number of requests submitted.
+     * @return The number of requests.
+     */
+    long requests() {
+        return requests.sum();
+    }
+
+
+    /**
+     * Finds the number of batches run.
+     * @return The number of batches.
+     */
+    long batches() {
+        return batches.get();
+    }
+
+
+    /**
+     * Finds the mean number of requests in a batch.
+     * @return The mean batch size, or 0 before the first batch.
+     */
+    double meanBatchSize() {
+        long count = batches.get();
+        return (count == 0) ? 0 : (double) batched.get() / count;
+    }
+
+
+    /**
+     * Finds the largest number of requests in one batch.
+     * @return The largest batch size.
+     */
+    long largestBatch() {
+        return largestBatch.get();
+    }
+
+
+    /**
+     * The loop of the dispatcher: waiting for a request, taking everything
+     * else waiting with it as one batch, and running the batch.
+     */
+    private void dispatch() {
+        ArrayList<Request> batch = new ArrayList<>(maxBatch);
+
+        while (!closed) {
+            // Waking up now and then to see if the service is closed
+            Request first;
+            try {
+                first = queue.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null)
+                continue;
+
+            batch.add(first);
+            queue.drainTo(batch, maxBatch - 1);
+
+            run(batch);
+            batch.clear();
+        }
+    }
+
+
+    /**
+     * Factorizes a batch on the pool and completes its futures.
+     * @param batch The requests of the batch.
+     */
+    private void run(ArrayList<Request> batch) {
+        int size = batch.size();
+        batches.incrementAndGet();
+        batched.addAndGet(size);
+        largestBatch.accumulateAndGet(size, Math::max);
+
+        long[] numbers = new long[size];
+        for (int i = 0; i < size; i++)
+            numbers[i] = batch.get(i).number;
+
+        FactorStore store = new FactorStore(numbers);
+        try {
+            pool.run(thread -> {
+                for (int i = thread; i < size; i += pool.k) {
+                    int index = i;
+                    PollardRho.factor(numbers[i], factor -> store.add(index, factor));
+                }
+            });
+        } catch (RuntimeException e) {
+            for (Request request : batch)
+                request.future.completeExceptionally(e);
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            long[] factors = new long[store.count(i)];
+            for (int j = 0; j < factors.length; j++)
+                factors[j] = store.factor(i, j);
+            Arrays.sort(factors);
+            batch.get(i).future.complete(factors);
+        }
+    }
+
+
+    /**
+     * One submitted number and the future of its factors.
+     */
+    static class Request {
+        /**
+         * Declaring local variables for each request
+         */
+        long number;
+        CompletableFuture<long[]> future = new CompletableFuture<>();
+
+        /**
+         * Constructor that initializes local request variables
+         */
+        Request(long number) {
+            this.number = number;
+        }
+    }
+
+
+    /**
+     * Expects three positive integers as arguments.
+     * @param args Contains the number of callers, the number of requests per
+     * caller and the number of cores to utilize.
+     */
+    public static void main(String[] args) {
+
+        int callers;
+        int perCaller;
+        int k;
+
+        try {
+            callers = Integer.parseInt(args[0]);
+            perCaller = Integer.parseInt(args[1]);
+            k = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+            if(callers <= 0) throw new Exception();
+            if(perCaller <= 0) throw new Exception();
+            if(k <= 0) throw new Exception();
+        } catch(Exception e) {
+            System.out.println("Correct use of program is: " +
+            "java FactorizationService <callers> <requests> <k> where <callers>, <requests> " +
+            "and <k> are positive integers.");
+            return;
+        }
+
+        try (FactorizationService service = new FactorizationService(k, 1024)) {
+            Thread[] threads = new Thread[callers];
+            long start = System.nanoTime();
+
+            // Every caller waits for each answer before sending the next
+            for (int c = 0; c < callers; c++) {
+                long first = Long.MAX_VALUE - 1000L * perCaller * c;
+                threads[c] = new Thread(() -> {
+                    for (int i = 0; i < perCaller; i++)
+                        service.submit(first - i).join();
+                });
+                threads[c].start();
+            }
+
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            long end = System.nanoTime();
+
+            System.out.printf("Factorized %d numbers for %d callers in %.2f ms%n",
+                service.requests(), callers, (end - start) / 1000000.0);
+            System.out.printf("%d batches, mean size %.1f, largest %d%n",
+                service.batches(), service.meanBatchSize(), service.largestBatch());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Prime factorization of every number in a block [lo, hi) of longs at once,
+ * by sieving the block with the primes instead of dividing each number by
+ * every prime.
+ *
+ * Idea:
+ * Trial division tries every prime against every number, although a prime p
+ * only divides one in every p numbers. Like RangeSieve, we can instead find
+ * the first multiple of p inside the block and step through the block p
+ * numbers at a time, dividing p out of every number it hits. A prime then
+ * costs one division to find its first multiple plus one step per multiple,
+ * instead of one division per number in the block.
+ *
+ * Once all primes up to the square root of hi have been used, what is left
+ * of each number is either 1 or a single prime.
+ *
+ * Implementation:
+ * The remaining cofactor of each number is kept in an AtomicLongArray. The
+ * primes are dealt out to the threads, with thread i taking every k-th prime
+ * from the i-th, so that the small primes with many multiples are spread
+ * evenly. Two threads can hit the same number, so a cofactor is divided with
+ * compare-and-set, and the factors are written to a FactorStore, which needs
+ * no lock either. The factor 2 is divided out before the threads start.
+ */
+
+
+ class IntervalFactorizer {
+
+    /**
+     * The widest block supported, so that the factor slots of every number
+     * fit in one FactorStore.
+     */
+    static final int MAX_WIDTH = Integer.MAX_VALUE / FactorStore.MAX_FACTORS;
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    long lo, hi;
+    int k, width;
+    int[] primes;
+    WorkerPool pool;
+    AtomicLongArray remaining;
+    FactorStore store;
+
+
+    /**
+     * Constructor that initializes the global variables, with the primes
+     * taken from the base primes shared with RangeSieve.
+     * @param lo The smallest number to factorize, at least 1.
+     * @param hi The number after the largest number to factorize.
+     * @param k  Number of threads to use.
+     */
+    IntervalFactorizer(long lo, long hi, int k) {
+      this(lo, hi, null, k);
+    }
+
+
+    /**
+     * Constructor that initializes the global variables.
+     * @param lo     The smallest number to factorize, at least 1.
+     * @param hi     The number after the largest number to factorize.
+     * @param primes The primes in increasing order, reaching at least the
+     *               square root of hi - 1, or null to find them here.
+     * @param k      Number of threads to use.
+     */
+    IntervalFactorizer(long lo, long hi, int[] primes, int k) {
+      this(lo, hi, primes, WorkerPool.common(k));
+    }
+
+
+    /**
+     * Constructor that initializes the global variables.
+     * @param lo     The smallest number to factorize, at least 1.
+     * @param hi     The number after the largest number to factorize.
+     * @param primes The primes in increasing order, reaching at least the
+     *               square root of hi - 1, or null to find them here.
+     * @param pool   The threads to factorize with, reused between calls.
+     */
+    IntervalFactorizer(long lo, long hi, int[] primes, WorkerPool pool) {
+      if (lo < 1 || hi < lo || hi - lo > MAX_WIDTH || hi - 1 > RangeSieve.MAX_HI)
+        throw new IllegalArgumentException("Can not factorize [" + lo + ", " + hi + ")");
+
+      this.lo = lo;
+      this.hi = hi;
+      this.k = pool.k;
+      this.pool = pool;
+      width = (int) (hi - lo);
+
+      int root = RangeSieve.sqrt(Math.max(hi - 1, 0));
+      this.primes = (primes != null) ? primes : RangeSieve.basePrimes(root);
+    }
+
+
+    /**
+     * Factorizes all numbers in the block.
+     * @return A FactorStore where number i is lo + i.
+     */
+    FactorStore factor() {
+      long[] numbers = new long[width];
+      for (int i = 0; i < width; i++)
+        numbers[i] = lo + i;
+
+      store = new FactorStore(numbers);
+      remaining = new AtomicLongArray(width);
+
+      // Dividing out the factor 2 before the threads start
+      for (int i = 0; i < width; i++) {
+        int twos = Long.numberOfTrailingZeros(numbers[i]);
+        remaining.set(i, numbers[i] >> twos);
+        for (int t = 0; t < twos; t++)
+          store.add(i, 2);
+      }
+
+      // Only the odd primes up to the square root of hi - 1 are needed
+      int root = RangeSieve.sqrt(Math.max(hi - 1, 0));
+      int first = (primes.length > 0 && primes[0] == 2) ? 1 : 0;
+      int last = Arrays.binarySearch(primes, first, primes.length, root + 1);
+      if (last < 0)
+        last = -last - 1;
+      int end = last;
+
+      pool.run(i -> {
+        for (int j = first + i; j < end; j += k)
+          sieve(primes[j]);
+      });
+
+      // If remaining value is not 1, it is another prime
+      for (int i = 0; i < width; i++)
+        if (remaining.get(i) != 1)
+          store.add(i, remaining.get(i));
+
+      return store;
+    }
+
+
+    /**
+     * Divides a prime out of every number in the block that it divides.
+     * @param prime An odd prime.
+     */
+    private void sieve(long prime) {
+      long multiple = (lo + prime - 1) / prime * prime;
+
+      for (long i = multiple - lo; i < width; i += prime) {
+        int index = (int) i;
+        long cofactor = remaining.get(index);
+
+        while (cofactor % prime == 0) {
+          if (remaining.compareAndSet(index, cofactor, cofactor / prime))
+            store.add(index, prime);
+          cofactor = remaining.get(index);
+        }
+      }
+    }
+
+
+    /**
+     * Expects two positive integers and optionally a third as arguments.
+     * @param args Contains the bounds of the block [lo, hi) to factorize and
+     * the number of cores to utilize.
+     */
+    public static void main(String[] args) {
+
+      long lo, hi;
+      int k;
+
+      try {
+        lo = Long.parseLong(args[0]);
+        hi = Long.parseLong(args[1]);
+        k = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        if (lo < 1 || hi < lo || k <= 0) throw new Exception();
+      } catch(Exception e) {
+        System.out.println("Correct use of program is: " +
+        "java IntervalFactorizer <lo> <hi> <k> where 1 <= <lo> <= <hi> and <k> is a positive integer.");
+        return;
+      }
+
+      FactorStore store = new IntervalFactorizer(lo, hi, k).factor();
+
+      for (int i = 0; i < store.numbers.length; i++) {
+        long[] factors = new long[store.count(i)];
+        for (int j = 0; j < factors.length; j++)
+          factors[j] = store.factor(i, j);
+        Arrays.sort(factors);
+
+        StringBuilder line = new StringBuilder().append(store.numbers[i]).append(" :");
+        for (long factor : factors)
+          line.append(' ').append(factor);
+        System.out.println(line);
+      }
+    }
+  }
@@ -1,23 +1,33 @@
-import java.util.concurrent.CyclicBarrier;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 public class Main {
 
     /**
      * Declaring all the global variables.
      */
-    static boolean runMedian = false;
+    static boolean runMedian = false, wheel = false, streaming = false, binary = false;
 
     static int n, k, runs = 7, factorizations = 100;
+
+    /**
+     * Largest number of primes one fork/join task trial divides with before
+     * it is split in two.
+     */
+    static final int CHUNK = 1 << 13;
     static int[] nSizes = {2000000, 20000000};
-    static Long [] numsToFactorize = new Long[factorizations + 1];
+    static long[] numsToFactorize = new long[factorizations + 1];
+    static String cacheFile = null, engine = "trial";
     static String[] colNames = {"n", "sequential(ms) ", "parallel(ms) ", "speedup"};
 
-    static CyclicBarrier cb;
-    static Map<Long, ArrayList<Integer>> globalFactors = new HashMap<>();
+    static WorkerPool pool;
+    static AtomicLongArray cofactors;
+    static FactorCache factorCache = null;
+    static ThreadLocal<long[]> cacheBuffer = ThreadLocal.withInitial(() -> new long[FactorStore.MAX_FACTORS]);
 
     
     /**
@@ -33,20 +43,45 @@ public class Main {
             else
                k = Integer.parseInt(args[1]);
             
-            if (args.length == 3 && args[2].equals("-m")) 
-                runMedian = true;
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("-m"))
+                    runMedian = true;
+                else if (args[i].equals("-w"))
+                    wheel = true;
+                else if (args[i].equals("-s"))
+                    streaming = true;
+                else if (args[i].equals("-b"))
+                    binary = true;
+                else if (args[i].equals("-c") && i + 1 < args.length)
+                    cacheFile = args[++i];
+                else if (args[i].equals("-f") && i + 1 < args.length)
+                    engine = args[++i];
+                else if (args[i].equals("-l") && i + 1 < args.length)
+                    factorCache = new FactorCache(Integer.parseInt(args[++i]));
+                else
+                    throw new Exception();
+            }
 
             if(n <= 0) throw new Exception();
             if(k <= 0) throw new Exception();
+            if(!Arrays.asList("trial", "rho", "forkjoin", "interval").contains(engine)) throw new Exception();
+            if(engine.equals("interval") && (long) n*n <= factorizations + 2) throw new Exception();
             
         } catch (Exception e) {
             System.out.println("Correct use of the program is: " + 
-            "java Oblig3 <n> <k> -m where <n> and <k> are positive integers, " +
-            "and -m is an optional flag to run median times");
+            "java Oblig3 <n> <k> -m -w -s -b -c <file> -f <engine> -l <size> where <n> and <k> are " +
+            "positive integers, -m is an optional flag to run median times, -w is an " +
+            "optional flag to sieve using the mod-30 wheel layout, -s is an optional " +
+            "flag to factorize with streamed primes, -b is an optional flag to write " +
+            "the factors in binary, -c is an optional flag to reuse " +
+            "the sequential sieve from a cache file, -f is an optional flag to " +
+            "choose the factorization engine, either trial, rho, forkjoin or interval " +
+            "and -l is an optional flag to keep up to <size> factorizations in a cache");
             return;
         }
 
         Main main = new Main();
+        pool = WorkerPool.common(k);
 
         getNumsToFactorize();
     
@@ -94,7 +129,7 @@ public class Main {
      * Gets the 100 highest numbers less than n*n.
      */
     public static void getNumsToFactorize() {
-        Long max = (long) n*n;
+        long max = (long) n*n;
         for (int i = 0; i <= factorizations; i++) {
             max--;
             numsToFactorize[i] = max;
@@ -111,15 +146,15 @@ public class Main {
         int[] sequentialPrimes, parallelPrimes;
         float[] runTiming = new float[3];
 
-        Oblig3 sequentialPrecode = new Oblig3(n);
-        Oblig3 parallelPrecode = new Oblig3(n);
+        FactorStore sequentialStore = new FactorStore(numsToFactorize);
+        FactorStore parallelStore = new FactorStore(numsToFactorize);
 
-        SieveOfErastothenes sequentialSieve = new SieveOfErastothenes(n);
-        SieveOfErastothenesPara parallelSieve = new SieveOfErastothenesPara(n, k);
+        SieveOfErastothenes sequentialSieve = new SieveOfErastothenes(n, wheel);
+        SieveOfErastothenesPara parallelSieve = new SieveOfErastothenesPara(n, k, wheel);
         
         // Measuring and storing execution time for each of the algorithms
         start = System.nanoTime();
-        sequentialPrimes = sequentialSieve.getPrimes();
+        sequentialPrimes = (cacheFile == null) ? sequentialSieve.getPrimes() : cachedPrimes(n);
         end = System.nanoTime();
         sequentialDuration = (end - start) / 1000000.0;
         
@@ -136,13 +171,15 @@ public class Main {
 
         printSingleInstance(runTiming, "Single run time of sieve: ");
 
+        clearFactorCache();
         start = System.nanoTime();
-        sequentialFactorization(sequentialPrimes, sequentialPrecode);
+        runSequentialFactorization(sequentialPrimes, sequentialStore);
         end = System.nanoTime();
         sequentialDuration = (end - start) / 1000000.0;
         
+        clearFactorCache();
         start = System.nanoTime();
-        parallelFactorization(parallelPrimes, parallelPrecode);
+        runParallelFactorization(parallelPrimes, parallelStore);
         end = System.nanoTime();
         parallelDuration = (end - start) / 1000000.0;
         
@@ -151,11 +188,14 @@ public class Main {
         runTiming[2] = (float) (sequentialDuration / parallelDuration);
 
 
-        sequentialPrecode.writeFactors("sequential");
-        parallelPrecode.writeFactors("parallel");
+        sequentialStore.write(n, "sequential", binary);
+        parallelStore.write(n, "parallel", binary);
 
         printSingleInstance(runTiming, "Single run time of factorizations");
 
+        if (factorCache != null)
+            System.out.printf("Factor cache: %d hits, %d misses, %d evictions%n%n",
+                factorCache.hits(), factorCache.misses(), factorCache.evictions());
     }
 
     /**
@@ -178,8 +218,8 @@ public class Main {
         SieveOfErastothenes sequentialSieve;
         SieveOfErastothenesPara parallelSieve;
 
-        Oblig3 sequentialPrecode;
-        Oblig3 parallelPrecode;
+        FactorStore sequentialStore;
+        FactorStore parallelStore;
         
         
         for (int i = 0; i < sizes; i++) {
@@ -188,15 +228,15 @@ public class Main {
             for (int j = 0; j < runs; j++) {
                 System.out.print(j + " ");
 
-                sequentialSieve = new SieveOfErastothenes(nSizes[i]);
-                parallelSieve = new SieveOfErastothenesPara(nSizes[i], k);
+                sequentialSieve = new SieveOfErastothenes(nSizes[i], wheel);
+                parallelSieve = new SieveOfErastothenesPara(nSizes[i], k, wheel);
 
-                sequentialPrecode = new Oblig3(nSizes[i]);
-                parallelPrecode = new Oblig3(nSizes[i]);
+                sequentialStore = new FactorStore(numsToFactorize);
+                parallelStore = new FactorStore(numsToFactorize);
 
 
                 start = System.nanoTime();
-                sequentialPrimes = sequentialSieve.getPrimes();
+                sequentialPrimes = (cacheFile == null) ? sequentialSieve.getPrimes() : cachedPrimes(nSizes[i]);
                 end = System.nanoTime();
                 duration = (end - start) / 1000000.0;
                 sequentialSieveTimes[i][j] = (float) duration;
@@ -210,14 +250,16 @@ public class Main {
                 comparePrimes(sequentialPrimes, parallelPrimes);
 
 
+                clearFactorCache();
                 start = System.nanoTime();
-                sequentialFactorization(sequentialPrimes, sequentialPrecode);
+                runSequentialFactorization(sequentialPrimes, sequentialStore);
                 end = System.nanoTime();
                 duration = (end - start) / 1000000.0;
                 sequentialFactorTimes[i][j] = (float) duration;
 
+                clearFactorCache();
                 start = System.nanoTime();
-                parallelFactorization(sequentialPrimes, sequentialPrecode);
+                runParallelFactorization(sequentialPrimes, parallelStore);
                 end = System.nanoTime();
                 duration = (end - start) / 1000000.0;
                 parallelFactorTimes[i][j] = (float) duration;
@@ -264,7 +306,7 @@ public class Main {
         for (int i = 0; i < sizes; i++) {
         
             Arrays.sort(sequentialFactorTimes[i]);
-            Arrays.sort(sequentialFactorTimes[i]);
+            Arrays.sort(parallelFactorTimes[i]);
 
             sequentialMedian = sequentialFactorTimes[i][median];
             parallelMedian = parallelFactorTimes[i][median];
@@ -280,24 +322,82 @@ public class Main {
         System.out.print("\n\n");
     }
 
+    /**
+     * Runs the sequential factorization chosen on the command line.
+     * @param primes  Integer array of primes to use for factorizing
+     * @param store   FactorStore object to store the prime factors in
+     */
+    public void runSequentialFactorization(int[] primes, FactorStore store) {
+        if (engine.equals("rho"))
+            sequentialRhoFactorization(store);
+        else if (engine.equals("interval"))
+            intervalFactorization(primes, store, WorkerPool.common(1));
+        else if (streaming)
+            sequentialFactorization(store);
+        else
+            sequentialFactorization(primes, store);
+    }
+
+
+    /**
+     * Runs the parallel factorization chosen on the command line.
+     * @param primes  Integer array of primes to use for factorizing
+     * @param store   FactorStore object to store the prime factors in
+     */
+    public void runParallelFactorization(int[] primes, FactorStore store) {
+        if (engine.equals("rho"))
+            parallelRhoFactorization(store);
+        else if (engine.equals("forkjoin"))
+            forkJoinFactorization(primes, store);
+        else if (engine.equals("interval"))
+            intervalFactorization(primes, store, pool);
+        else if (streaming)
+            parallelFactorization(store);
+        else
+            parallelFactorization(primes, store);
+    }
+
+
+    /**
+     * Finds the primes up to 'n' from the bitmap cached in cacheFile,
+     * sieving and caching only what is missing from it.
+     * @param n The largest number to find primes up to
+     * @return  An array containing all the primes up to and including 'n'
+     */
+    public static int[] cachedPrimes(int n) {
+        try {
+            return new PrimeBitmapCache(Path.of(cacheFile)).getPrimes(n);
+        } catch (IOException e) {
+            System.out.println("Could not use cache file " + cacheFile + ": " + e.getMessage());
+            return new SieveOfErastothenes(n, wheel).getPrimes();
+        }
+    }
+
+
     /**
      * Prime factorizing the 100 numbers less than n*n sequentially. 
      * @param primes  Integer array of primes to use for factorizing
-     * @param precode Precode object to use for managing prime factors
+     * @param store   FactorStore object to store the prime factors in
      */
-    public void sequentialFactorization(int[] primes, Oblig3 precode) {
+    public void sequentialFactorization(int[] primes, FactorStore store) {
         long currentNum;
         int i = 0;
         int prime = primes[i];
 
-        for (long number : numsToFactorize) {
-            currentNum = number;
+        for (int j = 0; j < numsToFactorize.length; j++) {
+            currentNum = numsToFactorize[j];
+            if (addCachedFactors(j, currentNum, store))
+                currentNum = 1;
 
             // Finding prime factors and dividing to get remaining value 
             while (prime*prime <= currentNum) {
                 if (currentNum % prime == 0) {
                     currentNum /= prime;
-                    precode.addFactor(number, prime);
+                    store.add(j, prime);
+
+                    // The rest may have been factorized before
+                    if (addCachedFactors(j, currentNum, store))
+                        currentNum = 1;
                 }
                 else {
                     i++;
@@ -310,7 +410,8 @@ public class Main {
             i = 0;
             prime = primes[i];
             if (currentNum != 1)
-                precode.addFactor(number, currentNum);
+                store.add(j, currentNum);
+            cacheFactors(j, store);
         }
     }
 
@@ -318,40 +419,274 @@ public class Main {
 
 
     /**
-     * Prime factorizing the 100 numbers less than n*n in parallel.
-     * @param primes  Integer array of primes to use for factorizing
-     * @param precode Precode object to use for managing prime factors
+     * Prime factorizing the 100 numbers less than n*n sequentially, with the
+     * primes streamed from a PrimeIterator instead of read from an array.
+     * Every prime is tried against all numbers before moving on to the next.
+     * @param store   FactorStore object to store the prime factors in
      */
-    public void parallelFactorization(int[] primes, Oblig3 precode) {
-        cb = new CyclicBarrier(k + 1);
-        
-        // Setting up all numbers to factorize as keys in hashmap
-        for (Long n : numsToFactorize) {
-            globalFactors.put(n, new ArrayList<>());
+    public void sequentialFactorization(FactorStore store) {
+        long[] remaining = new long[numsToFactorize.length];
+        long largest = 0;
+
+        for (int i = 0; i < numsToFactorize.length; i++) {
+            remaining[i] = addCachedFactors(i, numsToFactorize[i], store) ? 1 : numsToFactorize[i];
+            largest = Math.max(largest, remaining[i]);
         }
-        for (int i = 0; i < k; i++) {
-            new Thread(new FactorizationWorker(i, primes)).start();
+
+        PrimeIterator primes = new PrimeIterator(2, n);
+
+        while (primes.hasNext()) {
+            long prime = primes.nextInt();
+            if (prime*prime > largest)
+                break;
+
+            largest = 0;
+            for (int i = 0; i < remaining.length; i++) {
+                // Finding prime factors and dividing to get remaining value
+                while (prime*prime <= remaining[i] && remaining[i] % prime == 0) {
+                    remaining[i] /= prime;
+                    store.add(i, prime);
+                }
+                largest = Math.max(largest, remaining[i]);
+            }
         }
 
-        try {
-            cb.await();
+        // If remaining value is not 1, it is another prime
+        for (int i = 0; i < remaining.length; i++) {
+            if (remaining[i] != 1)
+                store.add(i, remaining[i]);
+            cacheFactors(i, store);
         }
-        catch (Exception e) {
-            e.printStackTrace();
+    }
+
+
+    /**
+     * Prime factorizing the 100 numbers less than n*n sequentially with
+     * Miller-Rabin and Pollard-Brent rho. No primes from the sieve are needed.
+     * @param store   FactorStore object to store the prime factors in
+     */
+    public void sequentialRhoFactorization(FactorStore store) {
+        for (int i = 0; i < numsToFactorize.length; i++) {
+            int index = i;
+            PollardRho.factor(numsToFactorize[i], factor -> store.add(index, factor));
         }
+    }
 
-        // Adds all prime factors to precode object for all factorized numbers
-        for (Long key : globalFactors.keySet()) {
-            Long currentNum = key;
 
-            for (int factor : globalFactors.get(key)) {
-                precode.addFactor(key, factor);
-                currentNum /= factor;
-            }
+    /**
+     * Prime factorizing the 100 numbers less than n*n in parallel with
+     * Miller-Rabin and Pollard-Brent rho. Each thread factorizes every k-th
+     * number.
+     * @param store   FactorStore object to store the prime factors in
+     */
+    public void parallelRhoFactorization(FactorStore store) {
+        pool.run(i -> new RhoFactorizationWorker(i, store).run());
+    }
+
+
+    /**
+     * Prime factorizing the 100 numbers less than n*n as one block, by
+     * stepping through the block with every prime instead of dividing every
+     * number by every prime.
+     * @param primes  Integer array of primes to use for factorizing
+     * @param store   FactorStore object to store the prime factors in
+     * @param threads The threads to divide the primes between
+     */
+    public void intervalFactorization(int[] primes, FactorStore store, WorkerPool threads) {
+        long hi = numsToFactorize[0] + 1;
+        FactorStore block = new IntervalFactorizer(hi - numsToFactorize.length, hi, primes, threads).factor();
+
+        // The block is in increasing order, and numsToFactorize is not
+        for (int i = 0; i < block.numbers.length; i++) {
+            int index = (int) (numsToFactorize[0] - block.numbers[i]);
+            for (int j = 0; j < block.count(i); j++)
+                store.add(index, block.factor(i, j));
+        }
+    }
+
+
+    /**
+     * Prime factorizing the 100 numbers less than n*n in parallel on a
+     * work-stealing pool, shared by every call with the same k. Each number
+     * starts as one task over all primes up to its square root, which is
+     * split in halves until a task has at most CHUNK primes. Idle threads
+     * steal the larger halves, so a number with a lot of work left is shared
+     * by all threads.
+     * @param primes  Integer array of primes to use for factorizing
+     * @param store   FactorStore object to store the prime factors in
+     */
+    public void forkJoinFactorization(int[] primes, FactorStore store) {
+        ForkJoinPool pool = WorkerPool.forkJoin(k);
+        FactorizationTask[] tasks = new FactorizationTask[numsToFactorize.length];
+        initCofactors(store);
+
+        for (int j = 0; j < numsToFactorize.length; j++) {
+            // Only the primes up to the square root of the number are needed
+            int to = Arrays.binarySearch(primes, Math.min(RangeSieve.sqrt(numsToFactorize[j]), n) + 1);
+            if (to < 0)
+                to = -to - 1;
+
+            tasks[j] = new FactorizationTask(primes, store, j, 0, to);
+            pool.execute(tasks[j]);
+        }
+
+        // The pool is shared between calls, so waiting for the tasks instead
+        // of shutting it down
+        for (FactorizationTask task : tasks)
+            task.join();
+
+        addCofactors(store);
+    }
+
+
+    /**
+     * Prime factorizing the 100 numbers less than n*n in parallel, with each
+     * thread streaming the primes of its own part of [2, n].
+     * @param store   FactorStore object to store the prime factors in
+     */
+    public void parallelFactorization(FactorStore store) {
+        initCofactors(store);
+
+        pool.run(i -> {
+            int from = (int) ((long) n * i / k) + 1;
+            int to = (int) ((long) n * (i + 1) / k);
+            new StreamingFactorizationWorker(from, to, store).run();
+        });
+
+        addCofactors(store);
+    }
+
+
+    /**
+     * Prime factorizing the 100 numbers less than n*n in parallel.
+     * @param primes  Integer array of primes to use for factorizing
+     * @param store   FactorStore object to store the prime factors in
+     */
+    public void parallelFactorization(int[] primes, FactorStore store) {
+        initCofactors(store);
+
+        pool.run(i -> new FactorizationWorker(i, primes, store).run());
+
+        addCofactors(store);
+    }
+
+
+    /**
+     * Sets the shared cofactor of every number to the number itself, or to 1
+     * if its factors are taken from the factor cache.
+     * @param store   FactorStore object to store the prime factors in
+     */
+    private static void initCofactors(FactorStore store) {
+        cofactors = new AtomicLongArray(numsToFactorize.length);
+        for (int i = 0; i < numsToFactorize.length; i++)
+            cofactors.set(i, addCachedFactors(i, numsToFactorize[i], store) ? 1 : numsToFactorize[i]);
+    }
+
+
+    /**
+     * Divides the shared cofactor of a number by 'prime' if it divides it,
+     * retrying if another thread changed the cofactor in the meantime.
+     * Once prime*prime is larger than the cofactor, the cofactor has at most
+     * one prime factor not smaller than 'prime' left, so the workers stop
+     * trial dividing it, and whatever is left is that prime.
+     * @param  index The index of the number in numsToFactorize.
+     * @param  prime The prime to divide by.
+     * @return       A boolean; true if the cofactor was divided, false if
+     *               'prime' does not divide it.
+     */
+    private static boolean divideCofactor(int index, long prime) {
+        long cofactor = cofactors.get(index);
+
+        while (cofactor % prime == 0) {
+            if (cofactors.compareAndSet(index, cofactor, cofactor / prime))
+                return true;
+            cofactor = cofactors.get(index);
+        }
+        return false;
+    }
+
+
+    /**
+     * Empties the factor cache before a timed factorization, so that no run
+     * is answered from the factors stored by the run before it.
+     */
+    private static void clearFactorCache() {
+        if (factorCache != null)
+            factorCache.clear();
+    }
+
+
+    /**
+     * Replaces the shared cofactor of a number by its factors from the
+     * factor cache, if the cache has them. Only one thread can swap the
+     * cofactor for 1, so the factors are added once, and the other threads
+     * stop dividing the number.
+     * @param  index The index of the number in numsToFactorize.
+     * @param  store FactorStore object to store the prime factors in
+     */
+    private static void useCachedCofactor(int index, FactorStore store) {
+        if (factorCache == null)
+            return;
+
+        long cofactor = cofactors.get(index);
+        long[] factors = cacheBuffer.get();
+        int count = (cofactor > 1) ? factorCache.get(cofactor, factors) : -1;
+
+        if (count >= 0 && cofactors.compareAndSet(index, cofactor, 1))
+            for (int i = 0; i < count; i++)
+                store.add(index, factors[i]);
+    }
+
+
+    /**
+     * Adds the factors of a number, or of what is left of it, from the
+     * factor cache.
+     * @param  index The index of the number in numsToFactorize.
+     * @param  value The number, or the cofactor left of it.
+     * @param  store FactorStore object to store the prime factors in
+     * @return       A boolean; true if the factors were found in the cache.
+     */
+    private static boolean addCachedFactors(int index, long value, FactorStore store) {
+        if (factorCache == null || value <= 1)
+            return false;
+
+        long[] factors = cacheBuffer.get();
+        int count = factorCache.get(value, factors);
+        for (int i = 0; i < count; i++)
+            store.add(index, factors[i]);
+        return count >= 0;
+    }
+
+
+    /**
+     * Puts the factors of a finished number into the factor cache.
+     * @param index The index of the number in numsToFactorize.
+     * @param store FactorStore object holding its prime factors
+     */
+    private static void cacheFactors(int index, FactorStore store) {
+        if (factorCache == null)
+            return;
+
+        long[] factors = new long[store.count(index)];
+        for (int i = 0; i < factors.length; i++)
+            factors[i] = store.factor(index, i);
+        Arrays.sort(factors);
+        factorCache.put(numsToFactorize[index], factors, factors.length);
+    }
+
+
+    /**
+     * Adds the remaining cofactor of each number to the store once all
+     * workers are done, if it is not 1, and puts the factors of each number
+     * into the factor cache.
+     * @param store   FactorStore object to store the prime factors in
+     */
+    private static void addCofactors(FactorStore store) {
+        for (int i = 0; i < numsToFactorize.length; i++) {
             // If remaining value is not 1, it is another prime
-            if (currentNum != 1) {
-                precode.addFactor(key, currentNum);
-            }
+            if (cofactors.get(i) != 1)
+                store.add(i, cofactors.get(i));
+            cacheFactors(i, store);
         }
     }
 
@@ -365,73 +700,160 @@ public class Main {
          */
         int threadNum;
         int[] primes;
-        ArrayList<Integer> localFactors;
-        Map<Long, ArrayList<Integer>> allLocalFactors = new HashMap<>();
+        FactorStore store;
 
         /**
          * Constructor that initializes local thread variables
          */
-        public FactorizationWorker(int i, int[] primes) {
+        public FactorizationWorker(int i, int[] primes, FactorStore store) {
             this.threadNum = i;
-            this.localFactors = new ArrayList<>();
             this.primes = primes;
+            this.store = store;
         }
 
         /**
          * Performing prime factorization in in parallel
          */
         public void run() {
-            long currentNum;
-            int i = threadNum;
-            int prime = primes[threadNum];
-
-            for(long number : numsToFactorize) {
-                currentNum = number;
-
-                // Finding prime factors and dividing to get remaining value 
-                while (prime*prime <= currentNum && i < primes.length) {
-                    if (currentNum % prime == 0) {
-                        currentNum /= prime;
-                        localFactors.add(prime);
-                    }
-                    else {
-                        // Jumps k primes, for even distribution of primes among the threads
-                        i += k;
-                        if (i >= primes.length) 
-                            break;
-                    
-                        prime = primes[i];
+            for (int j = 0; j < numsToFactorize.length; j++) {
+                // Jumps k primes, for even distribution of primes among the threads
+                for (int i = threadNum; i < primes.length; i += k) {
+                    long prime = primes[i];
+
+                    // Re-reading the cofactor, which other threads divide as well
+                    if (prime*prime > cofactors.get(j))
+                        break;
+
+                    if (divideCofactor(j, prime)) {
+                        store.add(j, prime);
+                        while (divideCofactor(j, prime))
+                            store.add(j, prime);
+                        useCachedCofactor(j, store);
                     }
                 }
-                // prime is set to the first prime for next number
-                i = threadNum;
-                prime = primes[i];
+            }
+        }
+    }
+
 
-                allLocalFactors.put(number, localFactors);
-                localFactors = new ArrayList<>();
+    static class FactorizationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
+        /**
+         * Declaring local variables for each task
+         */
+        int[] primes;
+        FactorStore store;
+        int index, from, to;
+
+        /**
+         * Constructor that initializes local task variables
+         */
+        public FactorizationTask(int[] primes, FactorStore store, int index, int from, int to) {
+            this.primes = primes;
+            this.store = store;
+            this.index = index;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Trial divides the number with primes[from] to primes[to - 1], or
+         * splits the range in two if it is larger than CHUNK.
+         */
+        protected void compute() {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FactorizationTask(primes, store, index, from, middle),
+                          new FactorizationTask(primes, store, index, middle, to));
+                return;
             }
-            // Sends all factors to syncronized method for storing
-            updateFactors(allLocalFactors);
 
-            try {
-                cb.await();
+            for (int i = from; i < to; i++) {
+                long prime = primes[i];
+
+                // The rest of the number has at most one prime factor left,
+                // which is found as the remaining value
+                if (prime*prime > cofactors.get(index))
+                    break;
+
+                if (divideCofactor(index, prime)) {
+                    store.add(index, prime);
+                    while (divideCofactor(index, prime))
+                        store.add(index, prime);
+                    useCachedCofactor(index, store);
+                }
             }
-            catch (Exception e) {
-                e.printStackTrace();
+        }
+    }
+
+
+    class RhoFactorizationWorker implements Runnable {
+        /**
+         * Declaring local variables for each thread
+         */
+        int threadNum;
+        FactorStore store;
+
+        /**
+         * Constructor that initializes local thread variables
+         */
+        public RhoFactorizationWorker(int i, FactorStore store) {
+            this.threadNum = i;
+            this.store = store;
+        }
+
+        /**
+         * Factorizing every k-th number, starting at the thread's id
+         */
+        public void run() {
+            for (int i = threadNum; i < numsToFactorize.length; i += k) {
+                int index = i;
+                PollardRho.factor(numsToFactorize[i], factor -> store.add(index, factor));
             }
         }
     }
 
 
-    /**
-     * Synchronized method to retrieve all factors from the threads to a HashMap 
-     * @param localFactors HashMap where key is the number that was factorized
-     *  and value is the factors found in the thread that called the method.
-     */
-    public synchronized void updateFactors(Map<Long,ArrayList<Integer>> localFactors) {
-        for (long key : globalFactors.keySet()) {
-            globalFactors.get(key).addAll(localFactors.get(key));
+    class StreamingFactorizationWorker implements Runnable {
+        /**
+         * Declaring local variables for each thread
+         */
+        int from, to;
+        FactorStore store;
+
+        /**
+         * Constructor that initializes local thread variables
+         */
+        public StreamingFactorizationWorker(int from, int to, FactorStore store) {
+            this.from = from;
+            this.to = to;
+            this.store = store;
+        }
+
+        /**
+         * Performing prime factorization with the primes in [from, to]
+         */
+        public void run() {
+            long largest = Long.MAX_VALUE;
+
+            PrimeIterator primes = new PrimeIterator(from, to);
+
+            while (primes.hasNext()) {
+                long prime = primes.nextInt();
+                if (prime*prime > largest)
+                    break;
+
+                largest = 0;
+                for (int i = 0; i < numsToFactorize.length; i++) {
+                    // Finding prime factors and dividing the shared remaining value
+                    if (prime*prime <= cofactors.get(i))
+                        while (divideCofactor(i, prime))
+                            store.add(i, prime);
+
+                    largest = Math.max(largest, cofactors.get(i));
+                }
+            }
         }
     }
 
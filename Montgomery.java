@@ -0,0 +1,108 @@
+/**
+ * Modular multiplication in Montgomery form, for odd 64-bit moduli.
+ *
+ * Idea:
+ * Reducing a 128-bit product modulo n needs a 128 by 64 bit division, which
+ * is slow. In Montgomery form a number a is stored as aR mod n with R = 2^64,
+ * and the product of two such numbers is reduced by dividing by R instead of
+ * by n. Dividing by R is a shift, and only needs two multiplications to make
+ * the low 64 bits zero first.
+ *
+ * Implementation:
+ * For t = aR * bR, let m = t * n^-1 mod 2^64. Then t - m * n is divisible by
+ * 2^64, and its upper 64 bits are abR mod n, give or take n. Only the upper
+ * halves of the two products are needed, since the lower halves are equal.
+ * Converting into Montgomery form is the only division left, and is done
+ * once per base. Every modulus must be odd and less than 2^63.
+ */
+
+class Montgomery {
+
+    /**
+     * Finds the inverse of an odd number modulo 2^64 by Newton's iteration.
+     * Each step doubles the number of correct low bits, and n is its own
+     * inverse modulo 8.
+     * @param  n An odd number.
+     * @return   The number n^-1 with n * n^-1 = 1 modulo 2^64.
+     */
+    static long inverse(long n) {
+        long inverse = n;
+        for (int i = 0; i < 5; i++)
+            inverse *= 2 - n * inverse;
+        return inverse;
+    }
+
+
+    /**
+     * Converts a number into Montgomery form.
+     * @param  a The number, in [0, n).
+     * @param  n The modulus.
+     * @return   a * 2^64 mod n.
+     */
+    static long toMontgomery(long a, long n) {
+        return PollardRho.remainder(a, 0, n);
+    }
+
+
+    /**
+     * Converts a number out of Montgomery form.
+     * @param  a       The number in Montgomery form.
+     * @param  n       The modulus.
+     * @param  inverse The inverse of n modulo 2^64.
+     * @return         a * 2^-64 mod n.
+     */
+    static long fromMontgomery(long a, long n, long inverse) {
+        return reduce(0, a, n, inverse);
+    }
+
+
+    /**
+     * Multiplies two numbers in Montgomery form.
+     * @param  a       The first factor, in [0, n).
+     * @param  b       The second factor, in [0, n).
+     * @param  n       The modulus.
+     * @param  inverse The inverse of n modulo 2^64.
+     * @return         The product in Montgomery form, in [0, n).
+     */
+    static long multiply(long a, long b, long n, long inverse) {
+        return reduce(Math.multiplyHigh(a, b), a * b, n, inverse);
+    }
+
+
+    /**
+     * Raises a number in Montgomery form to a power by squaring.
+     * @param  base     The base in Montgomery form.
+     * @param  exponent The exponent, non-negative.
+     * @param  n        The modulus.
+     * @param  inverse  The inverse of n modulo 2^64.
+     * @return          base^exponent in Montgomery form.
+     */
+    static long pow(long base, long exponent, long n, long inverse) {
+        long result = toMontgomery(1 % n, n);
+
+        while (exponent > 0) {
+            if ((exponent & 1) == 1)
+                result = multiply(result, base, n, inverse);
+            base = multiply(base, base, n, inverse);
+            exponent >>= 1;
+        }
+        return result;
+    }
+
+
+    /**
+     * Divides a 128-bit number by 2^64 modulo n.
+     * @param  high    The upper 64 bits, less than n.
+     * @param  low     The lower 64 bits.
+     * @param  n       The modulus.
+     * @param  inverse The inverse of n modulo 2^64.
+     * @return         (high * 2^64 + low) * 2^-64 mod n.
+     */
+    private static long reduce(long high, long low, long n, long inverse) {
+        long m = low * inverse;
+        // Upper half of the unsigned product m * n, where only m can be negative
+        long mn = Math.multiplyHigh(m, n) + ((m >> 63) & n);
+        long result = high - mn;
+        return (result < 0) ? result + n : result;
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.function.LongConsumer;
+
+/**
+ * Prime factorization of 64-bit numbers with Miller-Rabin and Pollard-Brent rho.
+ *
+ * Idea:
+ * Trial division needs every prime up to the square root of a number, which
+ * for numbers close to n*n means all primes up to n. Instead, a number is
+ * first tested for primality with Miller-Rabin. If it is composite, Pollard's
+ * rho method finds a non-trivial divisor in roughly the fourth root of the
+ * number steps, and both parts are factorized in turn.
+ *
+ * Implementation:
+ * All modular multiplication is done on the full 128-bit product in
+ * Montgomery form (see Montgomery), so nothing overflows for any modulus
+ * below 2^63. Rho uses Brent's cycle detection, and multiplies up to BATCH
+ * differences together before taking a gcd.
+ */
+
+public class PollardRho {
+
+    /**
+     * Miller-Rabin with these bases is correct for every n < 2^64.
+     */
+    static final long[] BASES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+    /**
+     * Small primes divided out by trial division before rho is used.
+     */
+    static final int[] SMALL_PRIMES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47};
+
+    /**
+     * Number of rho steps between each gcd.
+     */
+    static final int BATCH = 128;
+
+
+    /**
+     * Finds all prime factors of 'number', with multiplicity. The factors are
+     * not passed on in any particular order.
+     * @param number The number to factorize, at least 1.
+     * @param action Receives each prime factor.
+     * @throws IllegalArgumentException If 'number' is less than 1.
+     */
+    public static void factor(long number, LongConsumer action) {
+        if (number < 1)
+            throw new IllegalArgumentException("Can not factorize " + number);
+
+        for (int prime : SMALL_PRIMES) {
+            while (number % prime == 0) {
+                action.accept(prime);
+                number /= prime;
+            }
+        }
+        factorLarge(number, action);
+    }
+
+
+    /**
+     * Factorizes a number without small prime factors.
+     * @param number The number to factorize.
+     * @param action Receives each prime factor.
+     */
+    private static void factorLarge(long number, LongConsumer action) {
+        if (number == 1)
+            return;
+
+        if (isPrime(number)) {
+            action.accept(number);
+            return;
+        }
+
+        long divisor = rho(number);
+        factorLarge(divisor, action);
+        factorLarge(number / divisor, action);
+    }
+
+
+    /**
+     * Finds a non-trivial divisor of an odd composite number with Brent's
+     * variant of Pollard's rho, using f(x) = x^2 + c. The sequence is kept in
+     * Montgomery form, which does not change any of the gcds, since 2^64 and
+     * the number are coprime.
+     * @param  number An odd composite number.
+     * @return        A divisor d of 'number' with 1 < d < number.
+     */
+    static long rho(long number) {
+        // The rounded root of a perfect square below 2^63 is exact
+        long root = Math.round(Math.sqrt((double) number));
+        if (root * root == number)
+            return root;
+
+        long inverse = Montgomery.inverse(number);
+
+        for (long c = 1; ; c++) {
+            long y = 2, x = 2, saved = 2, product = 1, divisor = 1;
+
+            for (long r = 1; divisor == 1; r <<= 1) {
+                x = y;
+                for (long i = 0; i < r; i++)
+                    y = step(y, c, number, inverse);
+
+                for (long k = 0; k < r && divisor == 1; k += BATCH) {
+                    saved = y;
+                    long steps = Math.min(BATCH, r - k);
+
+                    for (long i = 0; i < steps; i++) {
+                        y = step(y, c, number, inverse);
+                        product = Montgomery.multiply(product, Math.abs(x - y), number, inverse);
+                    }
+                    divisor = gcd(product, number);
+                }
+            }
+
+            // The batch overshot the cycle, so redo it one step at a time
+            if (divisor == number) {
+                do {
+                    saved = step(saved, c, number, inverse);
+                    divisor = gcd(Math.abs(x - saved), number);
+                } while (divisor == 1);
+            }
+
+            if (divisor != number)
+                return divisor;
+        }
+    }
+
+
+    /**
+     * One step of the rho sequence.
+     * @param  y       The current value.
+     * @param  c       The constant of the sequence.
+     * @param  number  The modulus.
+     * @param  inverse The inverse of the modulus modulo 2^64.
+     * @return         (y^2 + c) mod number, in Montgomery form.
+     */
+    private static long step(long y, long c, long number, long inverse) {
+        long next = Montgomery.multiply(y, y, number, inverse) + c;
+        return (next >= number) ? next - number : next;
+    }
+
+
+    /**
+     * Deterministic Miller-Rabin primality test for 64-bit numbers. All
+     * arithmetic is done in Montgomery form, without any allocation.
+     * @param  number The number to test.
+     * @return        A boolean; true if prime, false if not.
+     */
+    public static boolean isPrime(long number) {
+        if (number < 2)
+            return false;
+        for (int prime : SMALL_PRIMES) {
+            if (number % prime == 0)
+                return number == prime;
+        }
+
+        long d = number - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>= s;
+
+        long inverse = Montgomery.inverse(number);
+        long one = Montgomery.toMontgomery(1, number);
+        long minusOne = number - one;
+
+        for (long base : BASES) {
+            long a = base % number;
+            if (a == 0)
+                continue;
+
+            long x = Montgomery.pow(Montgomery.toMontgomery(a, number), d, number, inverse);
+            if (x == one || x == minusOne)
+                continue;
+
+            boolean composite = true;
+            for (int i = 1; i < s && composite; i++) {
+                x = Montgomery.multiply(x, x, number, inverse);
+                composite = x != minusOne;
+            }
+            if (composite)
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Computes the remainder of an unsigned 128-bit number divided by a
+     * 64-bit number, by long division in base 2^32 (Knuth's algorithm D, as
+     * in Hacker's Delight).
+     * @param  high    The upper 64 bits of the dividend. Must be less than
+     *                 'divisor'.
+     * @param  low     The lower 64 bits of the dividend.
+     * @param  divisor The divisor, positive.
+     * @return         (high * 2^64 + low) mod divisor.
+     */
+    static long remainder(long high, long low, long divisor) {
+        if (high == 0 && low >= 0)
+            return low % divisor;
+
+        // Normalizing so that the top bit of the divisor is set
+        int shift = Long.numberOfLeadingZeros(divisor);
+        long v = divisor << shift;
+        long v1 = v >>> 32, v0 = v & 0xFFFFFFFFL;
+
+        long u32 = (shift == 0) ? high : (high << shift) | (low >>> (64 - shift));
+        long u10 = low << shift;
+        long u1 = u10 >>> 32, u0 = u10 & 0xFFFFFFFFL;
+
+        // First digit of the quotient
+        long q1 = Long.divideUnsigned(u32, v1);
+        long rhat = u32 - q1 * v1;
+        while (Long.compareUnsigned(q1, 0xFFFFFFFFL) > 0
+                || Long.compareUnsigned(q1 * v0, (rhat << 32) | u1) > 0) {
+            q1--;
+            rhat += v1;
+            if (Long.compareUnsigned(rhat, 0xFFFFFFFFL) > 0)
+                break;
+        }
+        long u21 = (u32 << 32) + u1 - q1 * v;
+
+        // Second digit of the quotient
+        long q0 = Long.divideUnsigned(u21, v1);
+        rhat = u21 - q0 * v1;
+        while (Long.compareUnsigned(q0, 0xFFFFFFFFL) > 0
+                || Long.compareUnsigned(q0 * v0, (rhat << 32) | u0) > 0) {
+            q0--;
+            rhat += v1;
+            if (Long.compareUnsigned(rhat, 0xFFFFFFFFL) > 0)
+                break;
+        }
+
+        return ((u21 << 32) + u0 - q0 * v) >>> shift;
+    }
+
+
+    /**
+     * Greatest common divisor by Stein's binary algorithm.
+     * @param  a A non-negative number.
+     * @param  b A non-negative number.
+     * @return   gcd(a, b).
+     */
+    static long gcd(long a, long b) {
+        if (a == 0)
+            return b;
+        if (b == 0)
+            return a;
+
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>= Long.numberOfTrailingZeros(a);
+
+        while (b != 0) {
+            b >>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A sieved bitmap kept in a memory mapped file, so that it can be reused
+ * across runs.
+ *
+ * Idea:
+ * The primes up to a given n never change, so there is no reason to sieve
+ * them again on every run. The odd-only bitmap of SieveOfErastothenes is
+ * stored in a file and mapped into memory. A later run asking for n' <= n
+ * simply collects the primes from the mapped bitmap. A run asking for n' > n
+ * grows the file and only sieves the part of the bitmap that is missing.
+ *
+ * File format:
+ * A header of HEADER_BYTES bytes, followed by the bitmap itself.
+ *
+ *  offset 0   int   MAGIC
+ *  offset 4   int   layout of the bitmap, only ODD_LAYOUT is supported
+ *  offset 8   long  n, the largest number that is sieved
+ *  offset 16  long  length of the bitmap in bytes
+ *  offset 24  long  CRC32 checksum of the bitmap
+ *
+ * A file with a header that does not match, or a bitmap that does not match
+ * its checksum, is sieved again from scratch.
+ */
+
+
+ class PrimeBitmapCache {
+
+    static final int MAGIC = 0x50524D42;
+    static final int ODD_LAYOUT = 0;
+    static final int HEADER_BYTES = 32;
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    Path file;
+    long cachedN;
+    int numOfPrimes;
+    MappedByteBuffer bitmap;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param file The file holding the bitmap. Created if it does not exist.
+     */
+    PrimeBitmapCache(Path file) {
+      this.file = file;
+    }
+
+
+    /**
+     * Finds all primes up to and including 'n', from the cached bitmap if it
+     * reaches far enough, and by extending it otherwise.
+     * @param  n Prime numbers up until (and including if prime) 'n' is found
+     * @return   An array containing all the primes up to and including 'n'.
+     * @throws IOException If the file can not be read, written or mapped.
+     */
+    int[] getPrimes(int n) throws IOException {
+      if (n <= 1) return new int[0];
+
+      int length = (n / 16) + 1;
+
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+        int cachedLength = readHeader(channel);
+
+        if (cachedN < n) {
+          bitmap = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) length);
+          extend(cachedLength, length, n);
+          writeHeader(n, length);
+          bitmap.force();
+        } else {
+          bitmap = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + (long) cachedLength);
+        }
+      }
+
+      byte[] bits = new byte[length];
+      bitmap.get(HEADER_BYTES, bits);
+
+      int[] primes = new PrimeCollector(bits, n, false, 1).collect();
+      numOfPrimes = primes.length;
+      return primes;
+    }
+
+
+    /**
+     * Reads and validates the header and the checksum of the file, and sets
+     * cachedN to the largest number sieved in it.
+     * @param  channel The open file.
+     * @return         The length of the cached bitmap, or 0 if the file holds
+     *                 no valid bitmap.
+     * @throws IOException If the file can not be read or mapped.
+     */
+    private int readHeader(FileChannel channel) throws IOException {
+      cachedN = 0;
+
+      if (channel.size() < HEADER_BYTES)
+        return 0;
+
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+
+      long n = header.getLong(8);
+      long length = header.getLong(16);
+
+      if (header.getInt(0) != MAGIC || header.getInt(4) != ODD_LAYOUT
+          || n > Integer.MAX_VALUE || length != (n / 16) + 1
+          || channel.size() < HEADER_BYTES + length)
+        return 0;
+
+      MappedByteBuffer cached = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, length);
+      CRC32 crc = new CRC32();
+      crc.update(cached);
+
+      if (crc.getValue() != header.getLong(24))
+        return 0;
+
+      cachedN = n;
+      return (int) length;
+    }
+
+
+    /**
+     * Writes the header for a bitmap sieved up to 'n', including the checksum
+     * of the mapped bitmap.
+     * @param n      The largest number sieved.
+     * @param length The length of the bitmap in bytes.
+     */
+    private void writeHeader(int n, int length) {
+      CRC32 crc = new CRC32();
+      crc.update(bitmap.slice(HEADER_BYTES, length));
+
+      bitmap.order(ByteOrder.LITTLE_ENDIAN);
+      bitmap.putInt(0, MAGIC);
+      bitmap.putInt(4, ODD_LAYOUT);
+      bitmap.putLong(8, n);
+      bitmap.putLong(16, length);
+      bitmap.putLong(24, crc.getValue());
+    }
+
+
+    /**
+     * Sieves the bytes of the bitmap from the last cached byte up to 'length',
+     * one segment at a time. The last cached byte is sieved again, since the
+     * numbers in it past the cached n were only sieved with the base primes
+     * of the cached n.
+     * @param cachedLength The length of the valid cached bitmap, or 0.
+     * @param length       The new length of the bitmap.
+     * @param n            The new largest number to sieve.
+     */
+    private void extend(int cachedLength, int length, int n) {
+      int low = Math.max(cachedLength - 1, 0);
+
+      if (cachedLength == 0)
+        bitmap.put(HEADER_BYTES, new byte[length]);
+
+      int[] primes = new SieveOfErastothenes((int) Math.sqrt(n)).getPrimes();
+      int[] basePrimes = (primes.length > 0) ? Arrays.copyOfRange(primes, 1, primes.length) : primes;
+      int[] next = new int[basePrimes.length];
+      int from = low * 8;
+
+      // Bit j in the bitmap represents the odd number 2j + 1
+      for (int i = 0; i < basePrimes.length; i++) {
+        int prime = basePrimes[i];
+        int j = (prime * prime) >>> 1;
+        if (j < from)
+          j += (from - j + prime - 1) / prime * prime;
+        next[i] = j;
+      }
+
+      byte[] segment = new byte[SieveOfErastothenes.SEGMENT_BYTES];
+
+      for (int segmentLow = low; segmentLow < length; segmentLow += segment.length) {
+        int bytes = Math.min(segment.length, length - segmentLow);
+        int bitLow = segmentLow * 8;
+        int bitHigh = bitLow + bytes * 8;
+
+        bitmap.get(HEADER_BYTES + segmentLow, segment, 0, bytes);
+
+        // The number 1 is not a prime
+        if (segmentLow == 0)
+          segment[0] |= 1;
+
+        for (int i = 0; i < basePrimes.length; i++) {
+          int prime = basePrimes[i];
+          int j = next[i];
+
+          for (; j < bitHigh; j += prime)
+            segment[(j - bitLow) >>> 3] |= 1 << ((j - bitLow) & 7);
+
+          next[i] = j;
+        }
+
+        bitmap.put(HEADER_BYTES + segmentLow, segment, 0, bytes);
+      }
+    }
+
+
+    /**
+     * Expects a positive integer and a file name as arguments.
+     * @param args Contains the number up to which we want to find prime
+     * numbers and the file to cache the bitmap in.
+     */
+    public static void main(String[] args) {
+
+      int n;
+
+      try {
+        n = Integer.parseInt(args[0]);
+        if (n <= 0 || args.length != 2) throw new Exception();
+      } catch(Exception e) {
+        System.out.println("Correct use of program is: " +
+        "java PrimeBitmapCache <n> <file> where <n> is a positive integer.");
+        return;
+      }
+
+      try {
+        long start = System.nanoTime();
+        int[] primes = new PrimeBitmapCache(Path.of(args[1])).getPrimes(n);
+        long end = System.nanoTime();
+
+        System.out.printf("Found %d primes up to %d in %.2f ms%n",
+            primes.length, n, (end - start) / 1000000.0);
+      } catch (IOException e) {
+        System.out.println("Could not use cache file " + args[1] + ": " + e.getMessage());
+      }
+    }
+  }
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A load generator for PrimeServer.
+ *
+ * Each connection runs in its own thread and sends its requests in rounds
+ * of 'depth' requests at a time, written as one buffer, before reading the
+ * 'depth' responses. With depth 1 every request waits a full round trip,
+ * and a larger depth shows what pipelining saves. The operations are drawn
+ * at random from isPrime, nextPrime, pi(x) and factor, with random
+ * arguments up to the n of the server and random 62-bit numbers to
+ * factorize. A round is written in full before its responses are read, so
+ * the depth should stay within what the socket buffers hold, a few thousand
+ * requests.
+ */
+
+class PrimeClient {
+
+    /**
+     * Declaring all the global variables
+     */
+    SocketAddress address;
+    int n, requests, depth;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param address  The address of the server.
+     * @param n        The n of the server, which bounds the arguments.
+     * @param requests Number of requests per connection.
+     * @param depth    Number of requests sent before reading responses.
+     */
+    PrimeClient(SocketAddress address, int n, int requests, int depth) {
+        this.address = address;
+        this.n = n;
+        this.requests = requests;
+        this.depth = depth;
+    }
+
+
+    /**
+     * Opens a connection to the server.
+     * @return             A blocking channel connected to the server.
+     * @throws IOException If the server can not be reached.
+     */
+    SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open((address instanceof UnixDomainSocketAddress)
+            ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+        channel.connect(address);
+        return channel;
+    }
+
+
+    /**
+     * Sends all requests of one connection, and times each round.
+     * @param  seed        Seed for the random arguments.
+     * @param  latencies   Receives the time of each round in nanoseconds.
+     * @return             The number of error responses.
+     * @throws IOException If the connection fails.
+     */
+    int run(long seed, long[] latencies) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        ByteBuffer out = ByteBuffer.allocate(depth * PrimeServer.REQUEST_BYTES);
+        ByteBuffer in = ByteBuffer.allocate(depth * PrimeServer.RESPONSE_BYTES);
+        byte[] operations = new byte[depth];
+        int errors = 0;
+
+        try (SocketChannel channel = connect()) {
+            for (int round = 0; round < latencies.length; round++) {
+                int size = Math.min(depth, requests - round * depth);
+                out.clear();
+                for (int i = 0; i < size; i++) {
+                    operations[i] = (byte) (1 + random.nextInt(4));
+                    long argument = (operations[i] == PrimeServer.FACTOR)
+                        ? 2 + random.nextLong(1L << 62) : random.nextLong(n + 1L);
+                    out.put(operations[i]).putLong(argument);
+                }
+                out.flip();
+
+                long start = System.nanoTime();
+                while (out.hasRemaining())
+                    channel.write(out);
+
+                // Reading until all responses of the round are complete
+                in.clear();
+                int complete = 0, from = 0;
+                while (complete < size) {
+                    if (channel.read(in) < 0)
+                        throw new IOException("The server closed the connection");
+
+                    int length;
+                    while (complete < size && (length = responseLength(in, from, operations[complete])) > 0) {
+                        if (in.get(from) != PrimeServer.STATUS_OK)
+                            errors++;
+                        from += length;
+                        complete++;
+                    }
+                }
+                latencies[round] = System.nanoTime() - start;
+            }
+        }
+        return errors;
+    }
+
+
+    /**
+     * Finds the length of the response starting at 'from', if it has been
+     * read in full. Responses come in the order of the requests, so the
+     * operation of the request tells the length: an error is 1 byte, and an
+     * ok response is 2, 9 or 2 + 8 * count bytes.
+     * @param  in        The bytes read so far, from 0 to its position.
+     * @param  from      The start of the response.
+     * @param  operation The operation of the request it answers.
+     * @return           The length of the response, or 0 if it is not
+     *                   complete.
+     */
+    private static int responseLength(ByteBuffer in, int from, byte operation) {
+        if (in.position() <= from)
+            return 0;
+        if (in.get(from) != PrimeServer.STATUS_OK)
+            return 1;
+
+        int length;
+        if (operation == PrimeServer.IS_PRIME)
+            length = 2;
+        else if (operation != PrimeServer.FACTOR)
+            length = 9;
+        else if (in.position() > from + 1)
+            length = 2 + 8 * in.get(from + 1);
+        else
+            return 0;
+
+        return (in.position() >= from + length) ? length : 0;
+    }
+
+
+    /**
+     * Expects an address and four positive integers as arguments.
+     * @param args Contains the address of the server, its n, the number of
+     * connections, the number of requests per connection and the pipeline
+     * depth.
+     */
+    public static void main(String[] args) {
+
+        SocketAddress address;
+        int n, connections, requests, depth;
+
+        try {
+            address = PrimeServer.address(args[0]);
+            n = Integer.parseInt(args[1]);
+            connections = Integer.parseInt(args[2]);
+            requests = Integer.parseInt(args[3]);
+            depth = Integer.parseInt(args[4]);
+
+            if(n <= 0) throw new Exception();
+            if(connections <= 0) throw new Exception();
+            if(requests <= 0) throw new Exception();
+            if(depth <= 0) throw new Exception();
+        } catch(Exception e) {
+            System.out.println("Correct use of program is: " +
+            "java PrimeClient <address> <n> <connections> <requests> <depth> where <address> " +
+            "is the port or socket path of a PrimeServer and the others are positive integers.");
+            return;
+        }
+
+        PrimeClient client = new PrimeClient(address, n, requests, depth);
+        int rounds = (requests + depth - 1) / depth;
+        long[][] latencies = new long[connections][rounds];
+        int[] errors = new int[connections];
+        Thread[] threads = new Thread[connections];
+
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int index = c;
+            threads[c] = new Thread(() -> {
+                try {
+                    errors[index] = client.run(index, latencies[index]);
+                } catch (IOException e) {
+                    System.out.println("Connection " + index + " failed: " + e.getMessage());
+                }
+            });
+            threads[c].start();
+        }
+
+        try {
+            for (Thread thread : threads)
+                thread.join();
+        } catch (InterruptedException e) {
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%d requests in %.2f s, %.0f requests/s, %d errors%n",
+            (long) connections * requests, seconds, connections * requests / seconds,
+            Arrays.stream(errors).sum());
+        System.out.printf("Round trip of %d requests: median %.1f us, 99th percentile %.1f us%n",
+            depth, all[all.length / 2] / 1000.0, all[(int) (all.length * 0.99)] / 1000.0);
+    }
+}
@@ -0,0 +1,208 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Collects the primes from a sieved bitmap, 64 bits at a time.
+ *
+ * Idea:
+ * Instead of checking every number with isPrime(), the bitmap is read as
+ * 64-bit words. The number of primes in a word is the number of zero bits,
+ * which Long.bitCount() finds in a single instruction, and the primes
+ * themselves are found by repeatedly taking the lowest set bit of the
+ * inverted word with Long.numberOfTrailingZeros().
+ *
+ * Implementation:
+ * The words are split into one block per thread. Each thread first counts
+ * the primes in its block. A prefix sum over the block counts then gives the
+ * position in the output array where each block starts, so that all threads
+ * can write their primes into the same array at the same time.
+ *
+ * Both the odd-only layout of SieveOfErastothenes and the mod-30 layout of
+ * WheelSieve are supported. In both, non-primes have the bit value 1.
+ */
+
+
+ class PrimeCollector {
+
+    /**
+     * Reads 8 bytes of a byte array as one little endian long, so that bit
+     * t of byte b ends up as bit 8b + t of the word.
+     */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    byte[] bits;
+    boolean wheel;
+    int k, validBits, words;
+    int[] smallPrimes, offsets, primes;
+    WorkerPool pool;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param bits  The sieved bitmap, with 1 marked as non-prime.
+     * @param n     The largest number to collect.
+     * @param wheel True if 'bits' uses the mod-30 layout, false if it uses
+     *              the odd-only layout.
+     * @param k     Number of threads to collect with.
+     */
+    PrimeCollector(byte[] bits, int n, boolean wheel, int k) {
+      this(bits, n, wheel, (k == 1) ? null : WorkerPool.common(k));
+    }
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param bits  The sieved bitmap, with 1 marked as non-prime.
+     * @param n     The largest number to collect.
+     * @param wheel True if 'bits' uses the mod-30 layout, false if it uses
+     *              the odd-only layout.
+     * @param pool  The threads to collect with, or null to collect on the
+     *              calling thread.
+     */
+    PrimeCollector(byte[] bits, int n, boolean wheel, WorkerPool pool) {
+      this.bits = bits;
+      this.wheel = wheel;
+      this.k = (pool == null) ? 1 : pool.k;
+      this.pool = pool;
+
+      if (wheel) {
+        // Bits up to and including the last residue not larger than n
+        int full = n / 30;
+        int r = 0;
+        while (r < 8 && WheelSieve.RESIDUES[r] <= n % 30)
+          r++;
+        validBits = full * 8 + r;
+        smallPrimes = (n >= 5) ? new int[] {2, 3, 5} : (n >= 3) ? new int[] {2, 3} : new int[] {2};
+      } else {
+        // Bit j represents the odd number 2j + 1
+        validBits = (n - 1) / 2 + 1;
+        smallPrimes = new int[] {2};
+      }
+
+      validBits = Math.min(validBits, bits.length * 8);
+      words = (validBits + 63) / 64;
+      offsets = new int[k + 1];
+    }
+
+
+    /**
+     * Counts and collects the primes in the bitmap.
+     * @return An array containing all the primes up to and including 'n'.
+     */
+    int[] collect() {
+      if (k == 1) {
+        offsets[1] = count(0);
+        prefixSums();
+        fill(0);
+        return primes;
+      }
+
+      // Counting all blocks, then filling them once the prefix sums are done
+      pool.run(block -> offsets[block + 1] = count(block));
+      prefixSums();
+      pool.run(block -> fill(block));
+
+      return primes;
+    }
+
+
+    /**
+     * Counts the primes in a block of words.
+     * @param  block The index of the block.
+     * @return       The number of primes in the block.
+     */
+    private int count(int block) {
+      int count = 0;
+
+      for (int w = first(block); w < first(block + 1); w++)
+        count += Long.bitCount(~word(w) & mask(w));
+
+      return count;
+    }
+
+
+    /**
+     * Turns the block counts into start positions in the output array, and
+     * allocates the output array. Runs after all blocks are counted.
+     */
+    private void prefixSums() {
+      offsets[0] = smallPrimes.length;
+      for (int i = 1; i <= k; i++)
+        offsets[i] += offsets[i - 1];
+
+      primes = new int[offsets[k]];
+      System.arraycopy(smallPrimes, 0, primes, 0, smallPrimes.length);
+    }
+
+
+    /**
+     * Writes the primes in a block of words into the output array, starting
+     * at the position found by prefixSums().
+     * @param block The index of the block.
+     */
+    private void fill(int block) {
+      int j = offsets[block];
+
+      for (int w = first(block); w < first(block + 1); w++) {
+        long primeBits = ~word(w) & mask(w);
+
+        while (primeBits != 0) {
+          int bit = w * 64 + Long.numberOfTrailingZeros(primeBits);
+
+          if (wheel)
+            primes[j++] = 30 * (bit >>> 3) + WheelSieve.RESIDUES[bit & 7];
+          else
+            primes[j++] = 2 * bit + 1;
+
+          primeBits &= primeBits - 1;
+        }
+      }
+    }
+
+
+    /**
+     * Finds the first word of a block.
+     * @param  block The index of the block.
+     * @return       The index of the first word in the block.
+     */
+    private int first(int block) {
+      return (int) ((long) words * block / k);
+    }
+
+
+    /**
+     * Masks away the bits of a word that lie past the largest number.
+     * @param  w The index of the word.
+     * @return   A mask with the valid bits of the word set.
+     */
+    private long mask(int w) {
+      int valid = validBits - w * 64;
+      return (valid >= 64) ? -1L : (1L << valid) - 1;
+    }
+
+
+    /**
+     * Reads word 'w' of the bitmap. A word that runs past the end of the
+     * array is read byte by byte, and the missing bytes are zero.
+     * @param  w The index of the word.
+     * @return   The 64 bits starting at bit 64w of the bitmap.
+     */
+    private long word(int w) {
+      int b = w * 8;
+
+      if (b + 8 <= bits.length)
+        return (long) LONGS.get(bits, b);
+
+      long word = 0;
+      for (int i = 0; b + i < bits.length; i++)
+        word |= (bits[b + i] & 0xFFL) << (8 * i);
+
+      return word;
+    }
+  }
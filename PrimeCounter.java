@@ -0,0 +1,279 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Counts the primes up to x without enumerating them, using the method of
+ * Meissel and Lehmer.
+ *
+ * Idea:
+ * Let phi(x, a) be the number of integers in [1, x] that are not divisible
+ * by any of the first a primes. If the a-th prime is at least the cube root
+ * of x, every such integer other than 1 is either a prime larger than p_a,
+ * or the product of exactly two such primes. Counting the products of two
+ * primes separately (P2) gives
+ *
+ *   pi(x) = phi(x, a) + a - 1 - P2(x, a)
+ *
+ *   P2(x, a) = sum over a < i <= pi(sqrt(x)) of pi(x / p_i) - (i - 1)
+ *
+ * phi follows the recurrence phi(x, a) = phi(x, a - 1) - phi(x / p_a, a - 1),
+ * which is cut short in three ways:
+ *  - For a small a, phi(x, a) repeats itself every p_1 * ... * p_a numbers,
+ *    and is read from a precomputed table.
+ *  - If x <= p_a^2, the only numbers counted are 1 and the primes in
+ *    (p_a, x], so phi(x, a) = pi(x) - a + 1.
+ *  - If x < p_a, only 1 is counted.
+ *
+ * Implementation:
+ * The values of pi(v) needed, for v up to y = x^(2/3), are read from the
+ * odd-only bitmap of SieveOfErastothenes, with a prefix count of primes for
+ * every 64-bit word. The running time is well below linear in x, and memory
+ * is about y / 16 bytes.
+ */
+
+
+ class PrimeCounter {
+
+    /**
+     * Reads 8 bytes of the bitmap as one little endian long.
+     */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * phi(x, a) for a up to SMALL_A is read from a table over one period.
+     */
+    static final int SMALL_A = 6;
+
+    /**
+     * If x^(2/3) is below this, x is small enough to count straight from a
+     * sieve up to x.
+     */
+    static final int MIN_Y = 1 << 16;
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    long x;
+    int y, a;
+    int[] primes, prefix, smallPhi;
+    long[] words;
+    int period;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param x The number to count primes up to.
+     */
+    PrimeCounter(long x) {
+      if (x < 0 || x > RangeSieve.MAX_HI)
+        throw new IllegalArgumentException("Can not count primes up to " + x);
+
+      this.x = x;
+    }
+
+
+    /**
+     * Counts the primes up to and including x.
+     * @return The number of primes less than or equal to x.
+     */
+    long count() {
+      if (x < 2)
+        return 0;
+
+      // The sieve must reach sqrt(x), and should reach x^(2/3) for P2. A
+      // smaller y only makes phi() slower, but a larger one breaks the formula.
+      long cbrt = (long) Math.cbrt((double) x);
+      while (cbrt * cbrt * cbrt > x)
+        cbrt--;
+      while ((cbrt + 1) * (cbrt + 1) * (cbrt + 1) <= x)
+        cbrt++;
+
+      long limit = (cbrt * cbrt < MIN_Y) ? x : cbrt * cbrt;
+      y = (int) Math.min(limit, Integer.MAX_VALUE - 1);
+
+      buildTables();
+
+      if (x <= y)
+        return pi(x);
+
+      buildSmallPhi();
+
+      a = (int) pi(x / y);
+      int b = (int) pi(RangeSieve.sqrt(x));
+
+      long p2 = 0;
+      for (int i = a + 1; i <= b; i++)
+        p2 += pi(x / primes[i - 1]) - (i - 1);
+
+      return phi(x, a) + a - 1 - p2;
+    }
+
+
+    /**
+     * Computes phi(v, c), the number of integers in [1, v] not divisible by
+     * any of the first c primes.
+     * @param  v The upper bound.
+     * @param  c The number of primes to exclude multiples of.
+     * @return   phi(v, c).
+     */
+    private long phi(long v, int c) {
+      if (v == 0)
+        return 0;
+      if (c <= SMALL_A)
+        return smallPhi(v, c);
+
+      long pc = primes[c - 1];
+      if (v < pc)
+        return 1;
+      if (v <= y && pc * pc >= v)
+        return pi(v) - c + 1;
+
+      // phi(v, c) = phi(v, SMALL_A) - sum over SMALL_A < i <= c of phi(v / p_i, i - 1)
+      long sum = smallPhi(v, SMALL_A);
+
+      for (int i = SMALL_A + 1; i <= c; i++) {
+        long p = primes[i - 1];
+        long q = v / p;
+
+        // From here on v / p_i < p_i, and every remaining term is 1
+        if (q < p) {
+          sum -= c - i + 1;
+          break;
+        }
+        sum -= phi(q, i - 1);
+      }
+      return sum;
+    }
+
+
+    /**
+     * Computes phi(v, c) for c up to SMALL_A.
+     * @param  v The upper bound.
+     * @param  c The number of primes to exclude multiples of.
+     * @return   phi(v, c).
+     */
+    private long smallPhi(long v, int c) {
+      if (c == 0)
+        return v;
+      if (c == SMALL_A)
+        return (v / period) * smallPhi[period] + smallPhi[(int) (v % period)];
+
+      return smallPhi(v, c - 1) - smallPhi(v / primes[c - 1], c - 1);
+    }
+
+
+    /**
+     * Computes the number of primes less than or equal to v, for v <= y.
+     * @param  v The number to count primes up to.
+     * @return   pi(v).
+     */
+    private long pi(long v) {
+      if (v < 2)
+        return 0;
+
+      // Bit j represents the odd number 2j + 1, and 2 is counted separately
+      int bit = (int) ((v - 1) / 2);
+      int w = bit >>> 6;
+      long mask = (bit & 63) == 63 ? -1L : (1L << ((bit & 63) + 1)) - 1;
+
+      return 1 + prefix[w] + Long.bitCount(words[w] & mask);
+    }
+
+
+    /**
+     * Sieves up to y and builds the prime list and the prefix counts of the
+     * bitmap.
+     */
+    private void buildTables() {
+      SieveOfErastothenes soe = new SieveOfErastothenes(y);
+      soe.presieve = false;
+      byte[] bits = soe.getBitmap();
+
+      // words[w] has bit t set if the number at bit 64w + t is prime
+      words = new long[(bits.length + 7) / 8];
+      for (int w = 0; w < words.length; w++) {
+        if (w * 8 + 8 <= bits.length) {
+          words[w] = ~(long) LONGS.get(bits, w * 8);
+        } else {
+          long word = 0;
+          for (int i = 0; w * 8 + i < bits.length; i++)
+            word |= (bits[w * 8 + i] & 0xFFL) << (8 * i);
+          words[w] = ~word;
+        }
+      }
+
+      // Clearing the bits past y
+      int validBits = (y - 1) / 2 + 1;
+      for (int w = 0; w < words.length; w++) {
+        int valid = validBits - w * 64;
+        if (valid < 64)
+          words[w] &= (valid <= 0) ? 0 : (1L << valid) - 1;
+      }
+
+      prefix = new int[words.length];
+      for (int w = 1; w < words.length; w++)
+        prefix[w] = prefix[w - 1] + Long.bitCount(words[w - 1]);
+
+      // The primes up to sqrt(x), which is at most y
+      int count = (int) pi(Math.min(RangeSieve.sqrt(x), y));
+      primes = new int[count];
+      int j = 0;
+      if (count > 0)
+        primes[j++] = 2;
+
+      for (int w = 0; w < words.length && j < primes.length; w++) {
+        long primeBits = words[w];
+        while (primeBits != 0 && j < primes.length) {
+          primes[j++] = 2 * (w * 64 + Long.numberOfTrailingZeros(primeBits)) + 1;
+          primeBits &= primeBits - 1;
+        }
+      }
+    }
+
+
+    /**
+     * Builds the table for smallPhi(), where smallPhi[v] = phi(v, SMALL_A)
+     * for v in [0, period].
+     */
+    private void buildSmallPhi() {
+      period = 1;
+      for (int i = 0; i < SMALL_A; i++)
+        period *= primes[i];
+
+      smallPhi = new int[period + 1];
+      for (int v = 1; v <= period; v++) {
+        boolean coprime = true;
+        for (int i = 0; i < SMALL_A && coprime; i++)
+          coprime = v % primes[i] != 0;
+        smallPhi[v] = smallPhi[v - 1] + (coprime ? 1 : 0);
+      }
+    }
+
+
+    /**
+     * Expects a non-negative integer as an argument.
+     * @param args Contains the number up to which we want to count primes.
+     */
+    public static void main(String[] args) {
+
+      long x;
+
+      try {
+        x = Long.parseLong(args[0]);
+        if (x < 0) throw new Exception();
+      } catch(Exception e) {
+        System.out.println("Correct use of program is: " +
+        "java PrimeCounter <x> where <x> is a non-negative integer.");
+        return;
+      }
+
+      long start = System.nanoTime();
+      long count = new PrimeCounter(x).count();
+      long end = System.nanoTime();
+
+      System.out.printf("pi(%d) = %d (%.2f ms)%n", x, count, (end - start) / 1000000.0);
+    }
+  }
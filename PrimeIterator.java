@@ -0,0 +1,169 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Iterates over the primes in [from, to] without ever holding more than one
+ * segment of the sieve in memory.
+ *
+ * Idea:
+ * Most users of the primes only walk through them once, for instance to sum
+ * them or to trial divide with them. There is then no need to first build an
+ * int[] of all of them. Instead, a single SEGMENT_BYTES sized bitmap is
+ * sieved with the base primes up to the square root of 'to', its primes are
+ * handed out one by one, and the same bitmap is then reused for the next
+ * segment.
+ *
+ * Implementation:
+ * The segment uses the odd-only layout of SieveOfErastothenes, where bit j
+ * represents the odd number 2j + 1. Each base prime keeps the bit index of
+ * its next multiple between segments, like in the segmented sieve. Memory use
+ * is the base primes plus one segment, regardless of 'to'.
+ */
+
+
+ class PrimeIterator implements PrimitiveIterator.OfInt {
+
+    /**
+     * Reads 8 bytes of the segment as one little endian long.
+     */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    int from, to, lastBit, segmentLow, segmentBits, word, nextPrime;
+    int[] basePrimes, next;
+    byte[] segment;
+    long primeBits;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param from The smallest number to consider.
+     * @param to   The largest number to consider.
+     */
+    PrimeIterator(int from, int to) {
+      this.from = Math.max(from, 2);
+      this.to = to;
+      segment = new byte[SieveOfErastothenes.SEGMENT_BYTES];
+
+      int[] primes = new SieveOfErastothenes((int) Math.sqrt(Math.max(to, 0))).getPrimes();
+      basePrimes = (primes.length > 0) ? Arrays.copyOfRange(primes, 1, primes.length) : primes;
+
+      // Bit indices of the first and last odd number in [from, to]
+      segmentLow = this.from / 2;
+      lastBit = (to - 1) / 2;
+
+      next = new int[basePrimes.length];
+      for (int i = 0; i < basePrimes.length; i++) {
+        int prime = basePrimes[i];
+        int j = (prime * prime) >>> 1;
+        if (j < segmentLow)
+          j += (segmentLow - j + prime - 1) / prime * prime;
+        next[i] = j;
+      }
+
+      if (this.from > to) {
+        nextPrime = -1;
+      } else if (this.from == 2) {
+        nextPrime = 2;
+        sieveSegment();
+      } else {
+        sieveSegment();
+        nextPrime = advance();
+      }
+    }
+
+
+    /**
+     * Checks if there are more primes left.
+     * @return A boolean; true if there is another prime, false if not.
+     */
+    public boolean hasNext() {
+      return nextPrime != -1;
+    }
+
+
+    /**
+     * Returns the next prime, and sieves the next segment if the current
+     * one has run out of primes.
+     * @return The next prime in [from, to].
+     */
+    public int nextInt() {
+      if (nextPrime == -1)
+        throw new NoSuchElementException();
+
+      int prime = nextPrime;
+      nextPrime = advance();
+      return prime;
+    }
+
+
+    /**
+     * Finds the next prime in the current segment, moving on to the next
+     * segment when this one is exhausted.
+     * @return The next prime or -1 if there are no more primes.
+     */
+    private int advance() {
+      while (primeBits == 0) {
+        word++;
+
+        if (word * 64 >= segmentBits) {
+          segmentLow += segmentBits;
+          if (segmentLow > lastBit)
+            return -1;
+          sieveSegment();
+        } else {
+          primeBits = readWord(word);
+        }
+      }
+
+      int bit = segmentLow + word * 64 + Long.numberOfTrailingZeros(primeBits);
+      primeBits &= primeBits - 1;
+      return 2 * bit + 1;
+    }
+
+
+    /**
+     * Sieves the segment starting at bit index segmentLow, and loads its
+     * first word.
+     */
+    private void sieveSegment() {
+      Arrays.fill(segment, (byte) 0);
+      segmentBits = Math.max(0, Math.min(segment.length * 8, lastBit - segmentLow + 1));
+      int segmentHigh = segmentLow + segmentBits;
+
+      for (int i = 0; i < basePrimes.length; i++) {
+        int prime = basePrimes[i];
+        int j = next[i];
+
+        for (; j < segmentHigh; j += prime)
+          segment[(j - segmentLow) >>> 3] |= 1 << ((j - segmentLow) & 7);
+
+        next[i] = j;
+      }
+
+      word = 0;
+      primeBits = readWord(0);
+    }
+
+
+    /**
+     * Reads a word of the segment, with the non-primes and the bits past the
+     * end of the segment cleared.
+     * @param  w The index of the word.
+     * @return   A word where bit t is set if the number at bit 64w + t of the
+     *           segment is prime.
+     */
+    private long readWord(int w) {
+      int valid = segmentBits - w * 64;
+      long mask = (valid >= 64) ? -1L : (1L << valid) - 1;
+      return ~(long) LONGS.get(segment, w * 8) & mask;
+    }
+  }
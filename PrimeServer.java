@@ -0,0 +1,549 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A long running server that keeps a sieve in memory and answers isPrime,
+ * nextPrime, pi(x) and factor requests over a local TCP or Unix domain
+ * socket.
+ *
+ * Idea:
+ * Starting a JVM and sieving again for every question costs far more than
+ * answering it. The server sieves once at startup and then answers from the
+ * bitmap and the array of primes, falling back to Miller-Rabin, PrimeCounter
+ * and PollardRho above n.
+ *
+ * Protocol:
+ * All numbers are big-endian. A request is REQUEST_BYTES bytes: one byte
+ * with the operation, and the argument as a long. A response starts with a
+ * status byte, STATUS_OK or STATUS_ERROR. An error has nothing more. COUNT
+ * is an error above MAX_COUNT, and so is any request that arrives while the
+ * workers have QUEUE_LENGTH requests waiting. An ok response to IS_PRIME
+ * has one byte, 1 for prime and 0 for not, NEXT_PRIME and COUNT have a
+ * long, and FACTOR has one byte with the number of factors followed by the
+ * factors as longs, in increasing order. A client may send any number of
+ * requests without waiting, and the responses come back in the order of the
+ * requests.
+ *
+ * Implementation:
+ * One thread serves all connections with a Selector and non-blocking
+ * channels. Each connection has an input buffer and an output buffer. The
+ * quick requests, IS_PRIME, NEXT_PRIME and COUNT up to n, are answered by
+ * the selector thread straight into the output buffer, which is then written
+ * as far as the socket takes it. COUNT above n and FACTOR may take seconds,
+ * so they are handed to a pool of k worker threads, and the selector thread
+ * goes on serving the other connections.
+ *
+ * To keep the responses in order, a connection with a request at the
+ * workers keeps a queue of slots, one per request from then on. A worker
+ * writes its response into its slot, marks it done, and wakes the selector
+ * up. The selector thread moves the done slots at the head of the queue to
+ * the output buffer, and answers the quick requests behind a slow one into
+ * slots as well. A connection has at most MAX_SLOTS slots.
+ *
+ * While a connection has output left to write, or its slots are full, the
+ * server stops reading from it, so a client that does not read its
+ * responses can not make the server's buffers grow.
+ */
+
+class PrimeServer implements Closeable {
+
+    /**
+     * Operations.
+     */
+    static final byte IS_PRIME = 1, NEXT_PRIME = 2, COUNT = 3, FACTOR = 4;
+
+    /**
+     * Response statuses.
+     */
+    static final byte STATUS_OK = 0, STATUS_ERROR = 1;
+
+    /**
+     * Size of a request, and the largest size of a response.
+     */
+    static final int REQUEST_BYTES = 9, RESPONSE_BYTES = 2 + 8 * FactorStore.MAX_FACTORS;
+
+    /**
+     * Size of the input and output buffer of each connection.
+     */
+    static final int BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Largest number of requests of one connection waiting for their turn,
+     * and largest number of requests waiting for the workers.
+     */
+    static final int MAX_SLOTS = 1024, QUEUE_LENGTH = 1 << 16;
+
+    /**
+     * The largest x for which COUNT above n is answered. pi(10^13) takes a
+     * few seconds on one core, and the time grows by about 8 for every factor
+     * 10 beyond it.
+     */
+    static final long MAX_COUNT = 10000000000000L;
+
+    /**
+     * The largest prime below 2^63.
+     */
+    static final long LARGEST_PRIME = Long.MAX_VALUE - 24;
+
+    /**
+     * Declaring all the global variables
+     */
+    int n;
+    SieveOfErastothenes sieve;
+    int[] primes;
+    SocketAddress address;
+    ServerSocketChannel server;
+    Selector selector;
+    ThreadPoolExecutor workers;
+    ConcurrentLinkedQueue<SelectionKey> completed = new ConcurrentLinkedQueue<>();
+    AtomicBoolean woken = new AtomicBoolean();
+    volatile boolean closed = false;
+
+
+    /**
+     * Constructor that sieves up to n, starts the workers and starts
+     * listening.
+     * @param  n           The largest number to sieve.
+     * @param  address     A local TCP or Unix domain socket address.
+     * @param  k           Number of worker threads for the slow requests.
+     * @throws IOException If the address can not be bound.
+     */
+    PrimeServer(int n, SocketAddress address, int k) throws IOException {
+        this.n = n;
+        this.address = address;
+        sieve = new SieveOfErastothenes(n);
+        primes = sieve.getPrimes();
+
+        workers = new ThreadPoolExecutor(k, k, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_LENGTH), task -> {
+                Thread thread = new Thread(task, "prime-server-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        server = ServerSocketChannel.open((address instanceof UnixDomainSocketAddress)
+            ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+        server.bind(address);
+        server.configureBlocking(false);
+
+        selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+
+    /**
+     * Turns a port number into a loopback TCP address, and anything else into
+     * a Unix domain socket path.
+     * @param  address A port number or a path.
+     * @return         The socket address.
+     */
+    static SocketAddress address(String address) {
+        if (address.matches("[0-9]+"))
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        return UnixDomainSocketAddress.of(address);
+    }
+
+
+    /**
+     * Serves connections until the server is closed.
+     * @throws IOException If the selector fails.
+     */
+    void serve() throws IOException {
+        while (!closed) {
+            selector.select();
+
+            // Connections with responses from the workers. A worker that
+            // finishes after the flag is cleared wakes the selector up again.
+            woken.set(false);
+            for (SelectionKey key; (key = completed.poll()) != null; )
+                if (key.isValid())
+                    handle(key);
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                if (key.isAcceptable())
+                    accept();
+                else if (key.isValid())
+                    handle(key);
+            }
+        }
+
+        workers.shutdownNow();
+        for (SelectionKey key : selector.keys())
+            key.channel().close();
+        selector.close();
+        if (address instanceof UnixDomainSocketAddress)
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+    }
+
+
+    /**
+     * Makes serve() stop and close all connections.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+
+    /**
+     * Accepts a new connection. A connection that can not be set up is
+     * dropped.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = server.accept();
+            if (channel == null)
+                return;
+
+            channel.configureBlocking(false);
+            // Responses from the workers are written a few at a time, which
+            // Nagle's algorithm would hold back for the client's delayed ack
+            if (!(address instanceof UnixDomainSocketAddress))
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        } catch (IOException e) {
+            // The client went away before it was set up
+            try {
+                if (channel != null)
+                    channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+
+    /**
+     * Serves a connection, and closes it if it fails. A failure of one
+     * connection never stops the server.
+     * @param key The key of the connection.
+     */
+    private void handle(SelectionKey key) {
+        try {
+            serve(key);
+        } catch (IOException | RuntimeException e) {
+            // The client went away or sent something we can not handle,
+            // which only ends its connection
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+
+    /**
+     * Reads what a connection has sent, answers all complete requests and
+     * writes as much of the answers as the socket takes.
+     * @param  key         The key of the connection.
+     * @throws IOException If the connection fails.
+     */
+    private void serve(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        // Reading without waiting, also when woken up by a worker
+        if (connection.in.hasRemaining() && channel.read(connection.in) < 0) {
+            key.cancel();
+            channel.close();
+            return;
+        }
+
+        // Answering, then making room for more answers, until either all
+        // requests are answered or the socket takes no more
+        while (true) {
+            answerAll(key, connection);
+
+            connection.out.flip();
+            channel.write(connection.out);
+            boolean written = !connection.out.hasRemaining();
+            connection.out.compact();
+
+            if (!written || connection.in.position() < REQUEST_BYTES || connection.slots.size() >= MAX_SLOTS)
+                break;
+        }
+
+        // Reading only when everything is written and there is room for more
+        // requests. A connection waiting only for the workers is woken up by
+        // them.
+        int ops = 0;
+        if (connection.out.position() > 0)
+            ops = SelectionKey.OP_WRITE;
+        else if (connection.in.hasRemaining() && connection.slots.size() < MAX_SLOTS)
+            ops = SelectionKey.OP_READ;
+        key.interestOps(ops);
+    }
+
+
+    /**
+     * Answers the complete requests in the input buffer of a connection, as
+     * long as the answers fit in its output buffer and its slots. Slow
+     * requests are handed to the workers.
+     * @param key        The key of the connection.
+     * @param connection The connection.
+     */
+    private void answerAll(SelectionKey key, Connection connection) {
+        ByteBuffer in = connection.in, out = connection.out;
+        ArrayDeque<Slot> slots = connection.slots;
+        in.flip();
+
+        while (true) {
+            // Moving the responses that are next in line to the output buffer
+            while (!slots.isEmpty() && slots.peek().done && out.remaining() >= slots.peek().response.position()) {
+                ByteBuffer response = slots.poll().response;
+                response.flip();
+                out.put(response);
+            }
+
+            if (in.remaining() < REQUEST_BYTES)
+                break;
+
+            byte operation = in.get(in.position());
+            long argument = in.getLong(in.position() + 1);
+
+            if (slow(operation, argument)) {
+                if (slots.size() >= MAX_SLOTS)
+                    break;
+                Slot slot = new Slot();
+                slots.add(slot);
+                submit(key, slot, operation, argument);
+            } else if (slots.isEmpty()) {
+                if (out.remaining() < RESPONSE_BYTES)
+                    break;
+                answer(operation, argument, out);
+            } else {
+                if (slots.size() >= MAX_SLOTS)
+                    break;
+                Slot slot = new Slot();
+                answer(operation, argument, slot.response);
+                slot.done = true;
+                slots.add(slot);
+            }
+            in.position(in.position() + REQUEST_BYTES);
+        }
+
+        in.compact();
+    }
+
+
+    /**
+     * Checks if a request is answered by the workers.
+     * @param  operation The operation.
+     * @param  argument  The argument.
+     * @return           A boolean; true for COUNT above n and FACTOR.
+     */
+    private boolean slow(byte operation, long argument) {
+        return operation == FACTOR || (operation == COUNT && argument > n && argument <= MAX_COUNT);
+    }
+
+
+    /**
+     * Hands a request to the workers. The worker answers into the slot and
+     * wakes the selector up, unless another worker already has. If the workers have too much waiting, the
+     * request is answered with an error right away.
+     * @param key       The key of the connection.
+     * @param slot      The slot of the request.
+     * @param operation The operation.
+     * @param argument  The argument.
+     */
+    private void submit(SelectionKey key, Slot slot, byte operation, long argument) {
+        try {
+            workers.execute(() -> {
+                answer(operation, argument, slot.response);
+                slot.done = true;
+                completed.add(key);
+                if (woken.compareAndSet(false, true))
+                    selector.wakeup();
+            });
+        } catch (RejectedExecutionException e) {
+            slot.response.put(STATUS_ERROR);
+            slot.done = true;
+        }
+    }
+
+
+    /**
+     * Answers one request. Any failure to find the answer is answered with
+     * STATUS_ERROR. Safe to call from several threads at once.
+     * @param operation The operation.
+     * @param argument  The argument.
+     * @param out       Receives the response.
+     */
+    void answer(byte operation, long argument, ByteBuffer out) {
+        // Finding the answer before writing anything, since it may fail
+        try {
+            if (operation == IS_PRIME) {
+                boolean prime = sieve.isPrime(argument);
+                out.put(STATUS_OK).put((byte) (prime ? 1 : 0));
+            } else if (operation == NEXT_PRIME) {
+                long next = nextPrime(argument);
+                out.put(STATUS_OK).putLong(next);
+            } else if (operation == COUNT) {
+                long count = count(argument);
+                out.put(STATUS_OK).putLong(count);
+            } else if (operation == FACTOR) {
+                long[] factors = factor(argument);
+                out.put(STATUS_OK).put((byte) factors.length);
+                for (long factor : factors)
+                    out.putLong(factor);
+            } else {
+                out.put(STATUS_ERROR);
+            }
+        } catch (RuntimeException | OutOfMemoryError e) {
+            out.put(STATUS_ERROR);
+        }
+    }
+
+
+    /**
+     * Finds the smallest prime larger than a number.
+     * @param  x The number.
+     * @return   The next prime after 'x'.
+     */
+    long nextPrime(long x) {
+        if (x >= LARGEST_PRIME)
+            throw new IllegalArgumentException("No prime after " + x + " fits in a long");
+        if (x < 2)
+            return 2;
+
+        if (primes.length > 0 && x < primes[primes.length - 1])
+            return primes[countUpTo(x)];
+
+        long candidate = (x + 1) | 1;
+        while (!sieve.isPrime(candidate))
+            candidate += 2;
+        return candidate;
+    }
+
+
+    /**
+     * Counts the primes up to a number, from the array of primes up to n and
+     * with PrimeCounter above it.
+     * @param  x The number, at most MAX_COUNT.
+     * @return   pi(x), the number of primes less than or equal to 'x'.
+     */
+    long count(long x) {
+        if (x < 0 || x > MAX_COUNT)
+            throw new IllegalArgumentException("Can not count primes up to " + x);
+        if (x <= n)
+            return countUpTo(x);
+        return SieveOfErastothenes.countPrimes(x);
+    }
+
+
+    /**
+     * Factorizes a number.
+     * @param  x The number, at least 1.
+     * @return   The prime factors of 'x' in increasing order, empty for 1.
+     */
+    long[] factor(long x) {
+        if (x < 1)
+            throw new IllegalArgumentException("Can not factorize " + x);
+
+        long[] factors = new long[FactorStore.MAX_FACTORS];
+        int[] count = new int[1];
+        PollardRho.factor(x, factor -> factors[count[0]++] = factor);
+        Arrays.sort(factors, 0, count[0]);
+        return Arrays.copyOf(factors, count[0]);
+    }
+
+
+    /**
+     * Counts the primes in the array up to a number not larger than n.
+     * @param  x The number.
+     * @return   The number of primes less than or equal to 'x'.
+     */
+    private int countUpTo(long x) {
+        int index = Arrays.binarySearch(primes, (int) x);
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+
+
+    /**
+     * The buffers of one connection, and the slots of its requests from the
+     * first one still at the workers and on.
+     */
+    static class Connection {
+        /**
+         * Declaring local variables for each connection
+         */
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES), out = ByteBuffer.allocate(BUFFER_BYTES);
+        ArrayDeque<Slot> slots = new ArrayDeque<>();
+    }
+
+
+    /**
+     * The response to one request, written by a worker or by the selector
+     * thread, and read by the selector thread once it is done.
+     */
+    static class Slot {
+        /**
+         * Declaring local variables for each slot
+         */
+        ByteBuffer response = ByteBuffer.allocate(RESPONSE_BYTES);
+        volatile boolean done = false;
+    }
+
+
+    /**
+     * Expects a positive integer, an address and another positive integer as
+     * arguments.
+     * @param args Contains the number up to which the sieve is kept, a port
+     * on localhost or a path for a Unix domain socket, and the number of
+     * worker threads.
+     */
+    public static void main(String[] args) {
+
+        int n;
+        SocketAddress address;
+        int k;
+
+        try {
+            n = Integer.parseInt(args[0]);
+            address = address(args[1]);
+            k = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+            if(n <= 0) throw new Exception();
+            if(k <= 0) throw new Exception();
+        } catch(Exception e) {
+            System.out.println("Correct use of program is: " +
+            "java PrimeServer <n> <address> <k> where <n> and <k> are positive integers and " +
+            "<address> is a port on localhost or the path of a Unix domain socket.");
+            return;
+        }
+
+        try (PrimeServer server = new PrimeServer(n, address, k)) {
+            System.out.printf("Serving primes up to %d on %s%n", n, address);
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Could not serve on " + address + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,442 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe table of the primes up to a limit, which extends itself when
+ * asked about numbers beyond it.
+ *
+ * Idea:
+ * SieveOfErastothenes and RangeSieve sieve a fixed range once, so needing
+ * primes up to n' > n means throwing the result away and sieving [1, n']
+ * again. The table instead keeps the primes it has found, and to reach n' it
+ * only sieves the new range (n, n']. Once the table reaches SEED, it already
+ * holds every base prime an int can need, so an extension costs the width of
+ * the new range and nothing more.
+ *
+ * Implementation:
+ * The new range is sieved like the segmented SieveOfErastothenes: one reused
+ * segment of SEGMENT_BYTES at a time, started from PATTERN and crossed off by
+ * the odd primes from 17 up to the square root of the segment. Those are the
+ * table's own primes, and each keeps the bit index of its next odd multiple
+ * in 'next', also from one extension to the following one. A prime joins
+ * them when its square is reached. Segments are aligned to 64 bits, and the
+ * primes of a segment are read a long at a time and written straight into
+ * the array after the published count, where no reader looks. The array is
+ * sized from an upper bound on the number of primes up to n', and at least
+ * doubled when it does not hold them.
+ *
+ * The primes found so far are published as an immutable Prefix: a limit, an
+ * array and the number of primes in the array that are up to the limit. An
+ * extension runs under the lock of the table, and after each segment a new
+ * Prefix is published through a volatile field, which orders the writes to
+ * the array before any read of the new count. Readers take the current
+ * Prefix and search it without locking, so every question about a number up
+ * to the limit is answered while an extension is running. Only a question
+ * beyond the limit waits for the extension that reaches it. A table below
+ * SEED is simply sieved again by SieveOfErastothenes, which takes well under
+ * a millisecond.
+ */
+
+
+ class PrimeTable {
+
+    /**
+     * The limit from which on the table extends itself segment by segment.
+     * Its square is larger than Integer.MAX_VALUE, so the table then holds
+     * the base primes of every int.
+     */
+    static final int SEED = 1 << 16;
+
+    /**
+     * Number of values represented by one segment.
+     */
+    private static final int SEGMENT_BITS = SieveOfErastothenes.SEGMENT_BYTES * 8;
+
+    /**
+     * The index in the table of the first base prime, following 2 and the
+     * primes in PRESIEVED.
+     */
+    private static final int FIRST_BASE = 1 + SieveOfErastothenes.PRESIEVED.length;
+
+    /**
+     * Reads 8 bytes of the segment as one little endian long.
+     */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    private volatile Prefix prefix = new Prefix(1, new int[0], 0);
+
+    // Only used under the lock: the segment, and the bit index of the next
+    // odd multiple of each of the first 'bases' base primes
+    private byte[] segment;
+    private int[] next = new int[0];
+    private int bases;
+
+
+    /**
+     * Constructor that makes an empty table.
+     */
+    PrimeTable() {
+    }
+
+
+    /**
+     * Constructor that fills the table up to n.
+     * @param n The number up to which the primes are found.
+     */
+    PrimeTable(int n) {
+      extendTo(n);
+    }
+
+
+    /**
+     * Finds how far the table currently reaches.
+     * @return The largest number up to which all primes are in the table.
+     */
+    int limit() {
+      return prefix.limit;
+    }
+
+
+    /**
+     * Checks if a number is prime, extending the table to it if needed.
+     * @param  x The number to check.
+     * @return   A boolean; true if prime, false if not.
+     */
+    boolean isPrime(int x) {
+      if (x < 2)
+        return false;
+
+      Prefix p = reach(x);
+      return Arrays.binarySearch(p.primes, 0, p.count, x) >= 0;
+    }
+
+
+    /**
+     * Counts the primes up to a number, extending the table to it if needed.
+     * @param  x The number.
+     * @return   pi(x), the number of primes less than or equal to 'x'.
+     */
+    int count(int x) {
+      if (x < 2)
+        return 0;
+
+      return countUpTo(reach(x), x);
+    }
+
+
+    /**
+     * Finds a prime by its index, extending the table until it holds it.
+     * @param  i The index of the prime, where 2 has index 0.
+     * @return   The prime with index 'i'.
+     */
+    int prime(int i) {
+      if (i < 0)
+        throw new IllegalArgumentException("No prime has index " + i);
+
+      Prefix p = prefix;
+      while (p.count <= i) {
+        if (p.limit == Integer.MAX_VALUE)
+          throw new IllegalArgumentException("The prime with index " + i + " does not fit in an int");
+        p = grow(p);
+      }
+      return p.primes[i];
+    }
+
+
+    /**
+     * Finds the smallest prime larger than a number, extending the table
+     * until it holds it.
+     * @param  x The number.
+     * @return   The next prime after 'x'.
+     */
+    int nextPrime(int x) {
+      if (x == Integer.MAX_VALUE)
+        throw new IllegalArgumentException("No prime after " + x + " fits in an int");
+      if (x < 2)
+        return 2;
+
+      Prefix p = reach(x);
+      while (true) {
+        int index = countUpTo(p, x);
+        if (index < p.count)
+          return p.primes[index];
+        p = grow(p);
+      }
+    }
+
+
+    /**
+     * Copies the primes up to a number, extending the table to it if needed.
+     * @param  n The largest number to include.
+     * @return   An array containing all the primes up to and including 'n'.
+     */
+    int[] getPrimes(int n) {
+      if (n < 2)
+        return new int[0];
+
+      Prefix p = reach(n);
+      return Arrays.copyOf(p.primes, countUpTo(p, n));
+    }
+
+
+    /**
+     * Extends the table so that it holds all primes up to n. Does nothing if
+     * it already does. Readers are not blocked while it runs, unless they ask
+     * about numbers beyond the current limit.
+     * @param n The number up to which the primes are found.
+     */
+    synchronized void extendTo(int n) {
+      Prefix p = prefix;
+      if (p.limit >= n)
+        return;
+
+      if (p.limit < SEED) {
+        int hi = Math.min(n, SEED);
+        int[] primes = new SieveOfErastothenes(hi).getPrimes();
+
+        p = new Prefix(hi, (n > hi) ? Arrays.copyOf(primes, capacity(n)) : primes, primes.length);
+        bases = 0;
+        prefix = p;
+        if (p.limit >= n)
+          return;
+      }
+
+      // Doubling, so that many small extensions copy the array only a few times
+      int[] primes = p.primes;
+      if (primes.length < capacity(n))
+        primes = Arrays.copyOf(primes, Math.max(capacity(n),
+            Math.min(2 * primes.length, capacity(Integer.MAX_VALUE))));
+      if (segment == null)
+        segment = new byte[SieveOfErastothenes.SEGMENT_BYTES];
+
+      int count = p.count;
+      int startBit = (p.limit + 1) >>> 1;
+      int lastBit = (n - 1) >>> 1;
+
+      // Bit j represents the odd number 2j + 1, and bit 'low' is bit 0 of the
+      // segment. Rounding the first segment down to a long may sieve up to 63
+      // bits the table already holds; they are left out when collecting.
+      for (int low = startBit & ~63; startBit <= lastBit; low += SEGMENT_BITS) {
+        int high = Math.min(low + SEGMENT_BITS, lastBit + 1);
+        int words = (high - low + 63) >>> 6;
+
+        addBasePrimes(primes, count, 2L * high - 1, low);
+        sieveSegment(primes, low, high, words * 8);
+
+        for (int w = 0; w < words; w++) {
+          int bit = low + w * 64;
+          long primeBits = ~(long) LONGS.get(segment, w * 8);
+          if (bit < startBit)
+            primeBits &= -1L << (startBit - bit);
+          if (high - bit < 64)
+            primeBits &= (1L << (high - bit)) - 1;
+
+          while (primeBits != 0) {
+            primes[count++] = 2 * (bit + Long.numberOfTrailingZeros(primeBits)) + 1;
+            primeBits &= primeBits - 1;
+          }
+        }
+
+        p = new Prefix((high > lastBit) ? n : 2 * high - 1, primes, count);
+        prefix = p;
+        startBit = high;
+      }
+
+      // An even n past an odd limit adds no odd number to sieve
+      if (p.limit < n)
+        prefix = new Prefix(n, primes, count);
+    }
+
+
+    /**
+     * Adds the primes of the table whose square is at most 'top' to the base
+     * primes, with their next multiple at or after bit 'low'.
+     * @param primes The array of the table.
+     * @param count  The number of primes in the array.
+     * @param top    The largest number of the next segment.
+     * @param low    The first bit of the next segment.
+     */
+    private void addBasePrimes(int[] primes, int count, long top, int low) {
+      while (FIRST_BASE + bases < count) {
+        int prime = primes[FIRST_BASE + bases];
+        if ((long) prime * prime > top)
+          return;
+
+        if (bases == next.length)
+          next = Arrays.copyOf(next, Math.max(2 * bases, 64));
+
+        int j = (int) (((long) prime * prime) >>> 1);
+        if (j < low)
+          j += (low - j + prime - 1) / prime * prime;
+        next[bases++] = j;
+      }
+    }
+
+
+    /**
+     * Sieves the bits [low, high) into the segment, where bit 'low' is bit 0
+     * of the segment.
+     * @param primes The array of the table, holding the base primes.
+     * @param low    The first bit of the segment, a multiple of 64.
+     * @param high   One past the last bit to sieve.
+     * @param bytes  The number of bytes of the segment to use.
+     */
+    private void sieveSegment(int[] primes, int low, int high, int bytes) {
+      SieveOfErastothenes.presieve(segment, 0, bytes, low >>> 3);
+
+      for (int i = 0; i < bases; i++) {
+        int prime = primes[FIRST_BASE + i];
+        int j = next[i];
+
+        for (; j < high; j += prime)
+          segment[(j - low) >>> 3] |= 1 << ((j - low) & 7);
+
+        next[i] = j;
+      }
+    }
+
+
+    /**
+     * Finds an upper bound on the number of primes up to n, by Dusart's
+     * pi(x) <= x / (ln x - 1.1) for x >= 60184.
+     * @param  n A number of at least SEED.
+     * @return   An array length that holds all primes up to 'n'.
+     */
+    private static int capacity(int n) {
+      return (int) (n / (Math.log(n) - 1.1)) + 1;
+    }
+
+
+    /**
+     * Finds a prefix that reaches a number, extending the table if the
+     * current one does not.
+     * @param  x The number.
+     * @return   A prefix with a limit of at least 'x'.
+     */
+    private Prefix reach(int x) {
+      Prefix p = prefix;
+      if (p.limit >= x)
+        return p;
+
+      extendTo(x);
+      return prefix;
+    }
+
+
+    /**
+     * Extends the table to about twice the limit of a prefix.
+     * @param  p The prefix that is too short.
+     * @return   A prefix with a larger limit.
+     */
+    private Prefix grow(Prefix p) {
+      extendTo((int) Math.min(2L * Math.max(p.limit, 1 << 16), Integer.MAX_VALUE));
+      return prefix;
+    }
+
+
+    /**
+     * Counts the primes of a prefix up to a number not larger than its limit.
+     * @param  p The prefix.
+     * @param  x The number.
+     * @return   The number of primes less than or equal to 'x'.
+     */
+    private static int countUpTo(Prefix p, int x) {
+      int index = Arrays.binarySearch(p.primes, 0, p.count, x);
+      return (index >= 0) ? index + 1 : -index - 1;
+    }
+
+
+    /**
+     * The primes up to a limit, as published to readers. The array may be
+     * longer than count, and is only read below it.
+     */
+    static class Prefix {
+      /**
+       * Declaring local variables for each prefix
+       */
+      final int limit, count;
+      final int[] primes;
+
+      /**
+       * Constructor that initializes local prefix variables
+       */
+      Prefix(int limit, int[] primes, int count) {
+        this.limit = limit;
+        this.primes = primes;
+        this.count = count;
+      }
+    }
+
+
+    /**
+     * Expects two positive integers as arguments.
+     * @param args Contains the number to extend the table to, and the number
+     * of reader threads running during the extension.
+     */
+    public static void main(String[] args) {
+
+      int n;
+      int readers;
+
+      try {
+        n = Integer.parseInt(args[0]);
+        readers = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+
+        if(n <= 1) throw new Exception();
+        if(readers <= 0) throw new Exception();
+      } catch(Exception e) {
+        System.out.println("Correct use of program is: " +
+        "java PrimeTable <n> <readers> where <n> is an integer larger than 1 and <readers> " +
+        "is a positive integer.");
+        return;
+      }
+
+      long start = System.nanoTime();
+      int[] scratch = new SieveOfErastothenes(n).getPrimes();
+      long end = System.nanoTime();
+      System.out.printf("Sieved %d primes up to %d from scratch in %.2f ms%n",
+          scratch.length, n, (end - start) / 1000000.0);
+
+      PrimeTable table = new PrimeTable(n / 2);
+
+      // Readers ask about numbers up to the published limit while the table
+      // is extended from n/2 to n
+      LongAdder lookups = new LongAdder();
+      Thread[] threads = new Thread[readers];
+      for (int r = 0; r < readers; r++) {
+        SplittableRandom random = new SplittableRandom(r);
+        threads[r] = new Thread(() -> {
+          while (table.limit() < n) {
+            table.isPrime(1 + random.nextInt(table.limit()));
+            lookups.increment();
+          }
+        });
+        threads[r].start();
+      }
+
+      start = System.nanoTime();
+      table.extendTo(n);
+      end = System.nanoTime();
+
+      for (Thread thread : threads) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+
+      System.out.printf("Extended the table from %d to %d in %.2f ms, %d lookups meanwhile%n",
+          n / 2, n, (end - start) / 1000000.0, lookups.sum());
+      System.out.println("Same primes as from scratch: " + Arrays.equals(scratch, table.getPrimes(n)));
+    }
+}
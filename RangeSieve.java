@@ -0,0 +1,291 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Sieve Of Eratosthenes over a window [lo, hi] of long values.
+ *
+ * Idea:
+ * A number in [lo, hi] is composite exactly when it has a prime factor less
+ * than or equal to the square root of hi. We therefore only need those base
+ * primes, and a bitmap covering the window itself. The cost of a window is
+ * then the width of the window plus one pass over the base primes, and does
+ * not grow with hi beyond that.
+ *
+ * Implementation:
+ * The bitmap uses the same odd-only layout as SieveOfErastothenes, but bit j
+ * represents the odd number base + 2j, where base is the first odd number in
+ * the window. The base primes are kept between windows, so that scanning
+ * several narrow bands near the same huge value only sieves them once.
+ *
+ * Wide windows are sieved one segment at a time. Near 10^12 and beyond most
+ * base primes are larger than a segment, so they are handled with the bucket
+ * sieve of Oliveira e Silva: every large prime waits in the bucket of the
+ * segment that holds its next multiple, instead of being looked at by every
+ * segment.
+ */
+
+
+ class RangeSieve {
+
+    /**
+     * The largest supported upper bound, chosen so that the base primes can
+     * be found by SieveOfErastothenes.
+     */
+    static final long MAX_HI = (long) (Integer.MAX_VALUE - 1) * (Integer.MAX_VALUE - 1);
+
+    /**
+     * Reads 8 bytes of the bitmap as one little endian long.
+     */
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The base primes found so far, shared by all windows.
+     */
+    private static int[] basePrimes = new int[0];
+    private static int basePrimesLimit = 1;
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    long lo, hi, base;
+    int bits, numOfPrimes;
+    byte[] oddNumbers;
+    boolean buckets = true;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param lo The lower bound of the window.
+     * @param hi The upper bound of the window.
+     */
+    RangeSieve(long lo, long hi) {
+      if (lo < 0 || hi > MAX_HI || hi - lo >= 2L * Integer.MAX_VALUE)
+        throw new IllegalArgumentException("Window [" + lo + ", " + hi + "] is not supported");
+
+      this.lo = lo;
+      this.hi = hi;
+      base = (lo % 2 == 0) ? lo + 1 : lo;
+      bits = (hi < base) ? 0 : (int) ((hi - base) / 2 + 1);
+      // Whole words, so that collectPrimes() can read the bitmap as longs
+      oddNumbers = new byte[(int) (((long) bits + 63) / 64 * 8)];
+    }
+
+
+    /**
+     * Performs the sieve over the window and collects the primes in it.
+     * @return An array containing all the primes in [lo, hi].
+     */
+    long[] getPrimes() {
+      if (hi < 2 || hi < lo) return new long[0];
+
+      sieve(basePrimes(sqrt(hi)));
+
+      return collectPrimes();
+    }
+
+
+    /**
+     * Marks the odd multiples of each base prime that fall inside the window,
+     * one segment of SEGMENT_BYTES at a time.
+     *
+     * Primes smaller than a segment hit every segment, and each keeps the
+     * position of its next multiple between segments. Larger primes hit a
+     * segment at most once. With 'buckets' set, each of them is kept in the
+     * bucket of the segment its next multiple falls in, so that a segment only
+     * visits the large primes that actually hit it. After marking, a prime is
+     * moved on to the bucket of its following multiple.
+     * @param primes The odd primes up to the square root of hi.
+     */
+    private void sieve(int[] primes) {
+      if (base == 1 && bits > 0)
+        oddNumbers[0] |= 1;
+
+      int segmentBits = SieveOfErastothenes.SEGMENT_BYTES * 8;
+      int segments = (int) (((long) bits + segmentBits - 1) / segmentBits);
+
+      // Finding the first multiple of each prime inside the window, as a bit
+      // index relative to base
+      int count = 0;
+      long[] next = new long[primes.length];
+
+      for (int prime : primes) {
+        long square = (long) prime * prime;
+        if (square > hi)
+          break;
+
+        long first = Math.max(square, (base + prime - 1) / prime * prime);
+        if (first % 2 == 0)
+          first += prime;
+
+        next[count++] = (first - base) / 2;
+      }
+
+      int small = count;
+      int[] head = null, link = null;
+
+      if (buckets) {
+        small = 0;
+        while (small < count && primes[small] < segmentBits)
+          small++;
+
+        head = new int[segments];
+        link = new int[count];
+        Arrays.fill(head, -1);
+
+        for (int i = small; i < count; i++)
+          if (next[i] < bits)
+            push(head, link, i, (int) (next[i] / segmentBits));
+      }
+
+      for (int segment = 0; segment < segments; segment++) {
+        long high = Math.min((long) (segment + 1) * segmentBits, bits);
+
+        for (int i = 0; i < small; i++) {
+          int prime = primes[i];
+          long j = next[i];
+
+          for (; j < high; j += prime)
+            oddNumbers[(int) (j >>> 3)] |= 1 << (j & 7);
+
+          next[i] = j;
+        }
+
+        if (!buckets)
+          continue;
+
+        int i = head[segment];
+        while (i != -1) {
+          int following = link[i];
+          long j = next[i];
+
+          oddNumbers[(int) (j >>> 3)] |= 1 << (j & 7);
+
+          next[i] = j + primes[i];
+          if (next[i] < bits)
+            push(head, link, i, (int) (next[i] / segmentBits));
+
+          i = following;
+        }
+      }
+    }
+
+
+    /**
+     * Puts a large prime in the bucket of a segment.
+     * @param head    The first prime in the bucket of each segment, or -1.
+     * @param link    The prime following each prime in its bucket, or -1.
+     * @param i       The index of the prime.
+     * @param segment The segment of the prime's next multiple.
+     */
+    private static void push(int[] head, int[] link, int i, int segment) {
+      link[i] = head[segment];
+      head[segment] = i;
+    }
+
+
+    /**
+     * Iterates through the window to count the number of primes found,
+     * creates an array of that size and populates the new array with the primes.
+     * A word at a time, as in PrimeCollector: the primes are the zero bits,
+     * counted with Long.bitCount() and found with Long.numberOfTrailingZeros()
+     * on the inverted word.
+     * @return An array containing all the primes in [lo, hi].
+     */
+    private long[] collectPrimes() {
+      boolean two = lo <= 2 && hi >= 2;
+      numOfPrimes = two ? 1 : 0;
+      int words = oddNumbers.length / 8;
+
+      for (int w = 0; w < words; w++)
+        numOfPrimes += Long.bitCount(primeBits(w));
+
+      long[] primes = new long[numOfPrimes];
+      int i = 0;
+
+      if (two)
+        primes[i++] = 2;
+
+      for (int w = 0; w < words; w++) {
+        long primeBits = primeBits(w);
+        while (primeBits != 0) {
+          long j = w * 64L + Long.numberOfTrailingZeros(primeBits);
+          primes[i++] = base + 2 * j;
+          primeBits &= primeBits - 1;
+        }
+      }
+
+      return primes;
+    }
+
+
+    /**
+     * Finds the bits of the primes in one word of the bitmap, leaving out the
+     * bits past the end of the window, like PrimeCollector.mask().
+     * @param  w The index of the word.
+     * @return   The inverted word, with a bit set for each prime.
+     */
+    private long primeBits(int w) {
+      long primeBits = ~(long) LONGS.get(oddNumbers, w * 8);
+      long valid = bits - w * 64L;
+      return (valid >= 64) ? primeBits : primeBits & ((1L << valid) - 1);
+    }
+
+
+    /**
+     * Returns the odd base primes up to 'limit', extending the shared table
+     * of base primes if it does not reach that far yet.
+     * @param  limit The largest base prime needed.
+     * @return       An array containing at least all odd primes up to 'limit'.
+     */
+    static synchronized int[] basePrimes(int limit) {
+      if (limit > basePrimesLimit) {
+        int[] primes = new SieveOfErastothenes(limit).getPrimes();
+        basePrimes = Arrays.copyOfRange(primes, 1, primes.length);
+        basePrimesLimit = limit;
+      }
+      return basePrimes;
+    }
+
+
+    /**
+     * Computes the integer square root of a non-negative long.
+     * @param  x The value to take the square root of.
+     * @return   The largest int r such that r * r <= x.
+     */
+    static int sqrt(long x) {
+      long r = Math.min((long) Math.sqrt((double) x), Integer.MAX_VALUE);
+      while (r * r > x)
+        r--;
+      // Stopping at the largest int, so that (r + 1)^2 can not overflow
+      while (r < Integer.MAX_VALUE && (r + 1) * (r + 1) <= x)
+        r++;
+      return (int) r;
+    }
+
+
+    /**
+     * Expects two non-negative integers as arguments.
+     * @param args Contains the bounds of the window to find primes in.
+     */
+    public static void main(String[] args) {
+
+      long lo, hi;
+
+      try {
+        lo = Long.parseLong(args[0]);
+        hi = Long.parseLong(args[1]);
+        if (lo < 0 || hi < lo) throw new Exception();
+      } catch(Exception e) {
+        System.out.println("Correct use of program is: " +
+        "java RangeSieve <lo> <hi> where 0 <= <lo> <= <hi>.");
+        return;
+      }
+
+      for (long prime : new RangeSieve(lo, hi).getPrimes())
+        System.out.println(prime);
+    }
+  }
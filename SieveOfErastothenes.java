@@ -1,3 +1,10 @@
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
 /**
  * A possible sequential algorithm for Sieve Of Eratosthenes.
  *
@@ -58,7 +65,38 @@
      *
      */
     int n, root, numOfPrimes;
-    byte[] oddNumbers;
+    byte[] oddNumbers, wheelNumbers;
+    boolean segmented, wheel, sieved, presieve = true;
+
+
+    /**
+     * Number of bytes in the bitmap sieved at a time in segmented mode.
+     * 32 KB fits in L1 on most machines, so the marking of a segment stays
+     * in cache instead of striding over the whole bitmap once per prime.
+     */
+    static final int SEGMENT_BYTES = 1 << 15;
+
+
+    /**
+     * Segmented mode is the default for all n at or above this value. Below
+     * it the whole bitmap is small enough to stay in L2 anyway.
+     */
+    static final int SEGMENTED_THRESHOLD = 1 << 22;
+
+
+    /**
+     * The primes that are crossed out by copying PATTERN into the bitmap
+     * instead of being marked one multiple at a time.
+     */
+    static final int[] PRESIEVED = {3, 5, 7, 11, 13};
+
+
+    /**
+     * The odd-only bitmap of the multiples of PRESIEVED. Since an odd multiple
+     * of p is found every p bits, the bitmap repeats itself every
+     * 3 * 5 * 7 * 11 * 13 = 15015 bytes.
+     */
+    static final byte[] PATTERN = pattern();
   
   
     /**
@@ -66,9 +104,26 @@
      * @param n Prime numbers up until (and including if prime) 'n' is found
      */
     SieveOfErastothenes(int n) {
+      this(n, false);
+    }
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param n     Prime numbers up until (and including if prime) 'n' is found
+     * @param wheel If true, the mod-30 wheel layout is used instead of the
+     *              odd-only layout.
+     */
+    SieveOfErastothenes(int n, boolean wheel) {
       this.n = n;
+      this.wheel = wheel;
       root = (int) Math.sqrt(n);
-      oddNumbers = new byte[(n / 16) + 1];
+      segmented = n >= SEGMENTED_THRESHOLD;
+
+      if (wheel)
+        wheelNumbers = new byte[WheelSieve.bytes(n)];
+      else
+        oddNumbers = new byte[(n / 16) + 1];
     }
   
   
@@ -79,45 +134,61 @@
     int[] getPrimes() {
       if (n <= 1) return new int[0];
   
-      sieve();
+      sieved = true;
+
+      if (wheel)
+        return wheelSieve();
+
+      if (segmented)
+        segmentedSieve();
+      else
+        sieve();
   
       return collectPrimes();
     }
+
+
+    /**
+     * Performs the sieve in the odd-only layout without collecting the primes.
+     * @return The sieved bitmap, where bit j is 0 if 2j + 1 is prime.
+     */
+    byte[] getBitmap() {
+      sieved = true;
+
+      if (segmented)
+        segmentedSieve();
+      else
+        sieve();
+
+      return oddNumbers;
+    }
   
   
     /**
-     * Iterates through the array to count the number of primes found,
-     * creates an array of that size and populates the new array with the primes.
+     * Collects the primes from the bitmap one 64-bit word at a time.
      * @return An array containing all the primes up to and including 'n'.
      */
     private int[] collectPrimes() {
-  
-      int start = (root % 2 == 0) ? root + 1 : root + 2;
-  
-      for (int i = start; i <= n; i += 2)
-        if (isPrime(i))
-          numOfPrimes++;
-  
-      int[] primes = new int[numOfPrimes];
-      primes[0] = 2;
-  
-      int j = 1;
-  
-      for (int i = 3; i <= n; i += 2)
-        if (isPrime(i))
-          primes[j++] = i;
-  
+      int[] primes = new PrimeCollector(oddNumbers, n, false, 1).collect();
+      numOfPrimes = primes.length;
       return primes;
     }
   
   
     /**
-     * Performs the Sieve Of Eratosthenes
+     * Performs the Sieve Of Eratosthenes. With 'presieve' set, the bitmap
+     * starts as a copy of PATTERN and marking starts at 17.
      */
     private void sieve() {
+      int first = 1;
+      if (presieve) {
+        presieve(oddNumbers, 0, oddNumbers.length);
+        first = PRESIEVED[PRESIEVED.length - 1];
+      }
+
       mark(1);
       numOfPrimes = 1;
-      int prime = nextPrime(1);
+      int prime = nextPrime(first);
   
       while (prime != -1) {
         traverse(prime);
@@ -127,13 +198,168 @@
     }
   
   
+    /**
+     * Performs the Sieve Of Eratosthenes one segment of SEGMENT_BYTES at a
+     * time. The primes up to root are found first, and each of them keeps the
+     * position of its next multiple between segments.
+     */
+    private void segmentedSieve() {
+      int[] basePrimes = sieveBasePrimes();
+      if (presieve)
+        basePrimes = withoutPresieved(basePrimes);
+
+      int[] next = new int[basePrimes.length];
+
+      // Bit j in the bitmap represents the odd number 2j + 1
+      for (int i = 0; i < basePrimes.length; i++)
+        next[i] = (basePrimes[i] * basePrimes[i]) >>> 1;
+
+      for (int low = 0; low < oddNumbers.length; low += SEGMENT_BYTES) {
+        int high = Math.min(low + SEGMENT_BYTES, oddNumbers.length);
+        if (presieve)
+          presieve(oddNumbers, low, high);
+        crossOffSegment(oddNumbers, basePrimes, next, high * 8);
+      }
+    }
+
+
+    /**
+     * Builds the repeating bitmap of the odd multiples of PRESIEVED.
+     * @return The first 15015 bytes of the bitmap with only the multiples of
+     *         PRESIEVED marked.
+     */
+    private static byte[] pattern() {
+      int length = 1;
+      for (int prime : PRESIEVED)
+        length *= prime;
+
+      byte[] pattern = new byte[length];
+
+      for (int prime : PRESIEVED)
+        for (int j = prime / 2; j < length * 8; j += prime)
+          pattern[j >>> 3] |= 1 << (j & 7);
+
+      return pattern;
+    }
+
+
+    /**
+     * Initializes the bytes [low, high) of an odd-only bitmap by copying
+     * PATTERN, so that the multiples of PRESIEVED are already crossed out.
+     * Any marks already in those bytes are overwritten.
+     * @param bits The bitmap to initialize.
+     * @param low  The first byte to initialize.
+     * @param high The byte one past the last byte to initialize.
+     */
+    static void presieve(byte[] bits, int low, int high) {
+      presieve(bits, low, high - low, low);
+
+      // The first byte holds 1 to 15. 1 is not a prime, but 3, 5, 7, 11
+      // and 13 are, even though they are marked in the pattern.
+      if (low == 0 && high > 0)
+        bits[0] = (byte) ((PATTERN[0] & ~0b01101110) | 1);
+    }
+
+
+    /**
+     * Copies PATTERN into 'length' bytes of a buffer, starting at byte 'at',
+     * as it appears from byte 'first' of the whole bitmap on. A buffer that
+     * holds one segment of the bitmap is thereby initialized without knowing
+     * where in the bitmap it is kept. The primes in PRESIEVED stay marked.
+     * @param bits   The buffer to initialize.
+     * @param at     The first byte of the buffer to initialize.
+     * @param length Number of bytes to initialize.
+     * @param first  The byte of the bitmap that byte 'at' holds.
+     */
+    static void presieve(byte[] bits, int at, int length, int first) {
+      int offset = first % PATTERN.length;
+
+      for (int b = 0; b < length; b += PATTERN.length - offset, offset = 0)
+        System.arraycopy(PATTERN, offset, bits, at + b, Math.min(PATTERN.length - offset, length - b));
+    }
+
+
+    /**
+     * Removes the primes in PRESIEVED from an array of base primes.
+     * @param  basePrimes The odd primes up to root, in increasing order.
+     * @return            The base primes larger than 13.
+     */
+    static int[] withoutPresieved(int[] basePrimes) {
+      int start = 0;
+      while (start < basePrimes.length && basePrimes[start] <= PRESIEVED[PRESIEVED.length - 1])
+        start++;
+
+      return Arrays.copyOfRange(basePrimes, start, basePrimes.length);
+    }
+
+
+    /**
+     * Performs the Sieve Of Eratosthenes on the mod-30 wheel layout, one
+     * segment at a time, and collects the primes.
+     * @return An array containing all the primes up to and including 'n'.
+     */
+    private int[] wheelSieve() {
+      WheelSieve.sieveBlock(wheelNumbers, WheelSieve.basePrimes(n), 0, wheelNumbers.length, presieve);
+
+      int[] primes = new PrimeCollector(wheelNumbers, n, true, 1).collect();
+      numOfPrimes = primes.length;
+      return primes;
+    }
+
+
+    /**
+     * Sieves the numbers up to root.
+     * @return An array containing all the odd primes up to and including root.
+     */
+    private int[] sieveBasePrimes() {
+      mark(1);
+      int count = 0;
+
+      for (int prime = nextPrime(1); prime != -1; prime = nextPrime(prime)) {
+        for (int i = prime * prime; i <= root; i += prime * 2)
+          mark(i);
+        count++;
+      }
+
+      int[] basePrimes = new int[count];
+      int j = 0;
+
+      for (int prime = nextPrime(1); prime != -1; prime = nextPrime(prime))
+        basePrimes[j++] = prime;
+
+      return basePrimes;
+    }
+
+
+    /**
+     * Marks the odd multiples of each prime up to, but not including, bit
+     * index 'to' in 'bits', where bit j represents the odd number 2j + 1.
+     * @param bits   The bitmap to mark.
+     * @param primes The odd primes to mark multiples of.
+     * @param next   The bit index of the next multiple to mark for each prime.
+     *               Updated to the first multiple at or past 'to'.
+     * @param to     The bit index one past the end of the segment.
+     */
+    static void crossOffSegment(byte[] bits, int[] primes, int[] next, int to) {
+      for (int i = 0; i < primes.length; i++) {
+        int prime = primes[i];
+        int j = next[i];
+
+        for (; j < to; j += prime)
+          bits[j >>> 3] |= 1 << (j & 7);
+
+        next[i] = j;
+      }
+    }
+
+
     /**
      * Marks all odd number multiples of 'prime', starting from prime * prime.
      * @param prime The prime used to mark the composite numbers.
      */
     private void traverse(int prime) {
-      for (int i = prime*prime; i <= n; i += prime * 2)
-        mark(i);
+      for (long i = (long) prime * prime; i <= n; i += prime * 2)
+        mark((int) i);
     }
   
   
@@ -166,6 +392,64 @@
     }
   
   
+    /**
+     * Checks if a number is prime. Numbers up to 'n' are read from the
+     * bitmap once it is sieved, and all other numbers are tested with
+     * deterministic Miller-Rabin.
+     * @param  number The number to check.
+     * @return        A boolean; true if prime, false if not.
+     */
+    public boolean isPrime(long number) {
+      if (number < 2)
+        return false;
+      if (!sieved || number > n)
+        return PollardRho.isPrime(number);
+      if (number == 2)
+        return true;
+
+      if (wheel) {
+        int bit = WheelSieve.BIT[(int) (number % 30)];
+        if (bit == -1)
+          return number == 3 || number == 5;
+        return (wheelNumbers[(int) (number / 30)] & (1 << bit)) == 0;
+      }
+
+      return (number & 1) == 1 && isPrime((int) number);
+    }
+
+
+    /**
+     * Checks a batch of numbers for primality with isPrime(long), split into
+     * one block of the array per thread of the shared WorkerPool of k threads.
+     * @param  numbers The numbers to check.
+     * @param  k       Number of threads to use.
+     * @return         An array where element i is true if numbers[i] is prime.
+     * @throws IllegalStateException If the calling thread is interrupted while
+     *                               it waits for the pool. Its interrupt flag
+     *                               is set again, and no partial result is
+     *                               returned.
+     */
+    public boolean[] isPrime(long[] numbers, int k) {
+      boolean[] result = new boolean[numbers.length];
+
+      if (k == 1) {
+        for (int j = 0; j < numbers.length; j++)
+          result[j] = isPrime(numbers[j]);
+        return result;
+      }
+
+      WorkerPool.common(k).run(i -> {
+        int from = (int) ((long) numbers.length * i / k);
+        int to = (int) ((long) numbers.length * (i + 1) / k);
+
+        for (int j = from; j < to; j++)
+          result[j] = isPrime(numbers[j]);
+      });
+
+      return result;
+    }
+
+
     /**
      * Marks the number 'num' as a composite number (non-prime)
      * @param num The number to be marked non-prime.
@@ -177,6 +461,54 @@
     }
   
   
+    /**
+     * Finds the primes in the window [lo, hi] without sieving anything below
+     * lo, apart from the base primes up to the square root of hi.
+     * @param  lo The lower bound of the window.
+     * @param  hi The upper bound of the window.
+     * @return    An array containing all the primes in [lo, hi].
+     */
+    static long[] getPrimes(long lo, long hi) {
+      return new RangeSieve(lo, hi).getPrimes();
+    }
+
+
+    /**
+     * Counts the primes up to and including 'x' without enumerating them.
+     * @param  x The number to count primes up to.
+     * @return   The number of primes less than or equal to 'x'.
+     */
+    static long countPrimes(long x) {
+      return new PrimeCounter(x).count();
+    }
+
+
+    /**
+     * Streams the primes up to and including 'n', one segment at a time,
+     * without building the full array of primes.
+     * @param  n The largest number to consider.
+     * @return   An ordered stream of the primes up to and including 'n'.
+     */
+    static IntStream primes(int n) {
+      int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT
+                          | Spliterator.SORTED | Spliterator.NONNULL;
+
+      return StreamSupport.intStream(
+          Spliterators.spliteratorUnknownSize(new PrimeIterator(2, n), characteristics), false);
+    }
+
+
+    /**
+     * Calls 'action' for every prime up to and including 'n' in increasing
+     * order, one segment at a time, without building the full array of primes.
+     * @param n      The largest number to consider.
+     * @param action The callback receiving each prime.
+     */
+    static void forEachPrime(int n, IntConsumer action) {
+      new PrimeIterator(2, n).forEachRemaining(action);
+    }
+
+
     /**
      * Prints the primes found.
      * @param primes The array containing all the primes.
@@ -1,15 +1,24 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.concurrent.CyclicBarrier;
 
  class SieveOfErastothenesPara {
+    /**
+     * Access to oddNumbers eight bytes at a time, as little-endian longs, so
+     * that bit j of the bitmap is bit j % 64 of word j / 64.
+     */
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
     /**
      * Declaring all the global variables
      *
      */
     int n, k, root, numOfPrimes;
-    byte[] oddNumbers;
+    byte[] oddNumbers, wheelNumbers;
     byte[][] oddNumbersInThreads;
-    CyclicBarrier cb;
+    WorkerPool pool;
+    boolean segmented, wheel, shared = false, presieve = true;
 
   
     /**
@@ -18,11 +27,43 @@ import java.util.concurrent.CyclicBarrier;
      * @param k Number of cores to utilize in the parallel segment
      */
     public SieveOfErastothenesPara(int n, int k) {
+      this(n, k, false);
+    }
+
+
+    /**
+     * Constructor that initializes the global variables.
+     * @param n     Prime numbers up until (and including if prime) 'n' is found
+     * @param k     Number of cores to utilize in the parallel segment
+     * @param wheel If true, the mod-30 wheel layout is used instead of the
+     *              odd-only layout.
+     */
+    public SieveOfErastothenesPara(int n, int k, boolean wheel) {
+      this(n, wheel, WorkerPool.common(k));
+    }
+
+
+    /**
+     * Constructor that initializes the global variables.
+     * @param n     Prime numbers up until (and including if prime) 'n' is found
+     * @param wheel If true, the mod-30 wheel layout is used instead of the
+     *              odd-only layout.
+     * @param pool  The threads to sieve with, one per core, reused between
+     *              calls.
+     */
+    public SieveOfErastothenesPara(int n, boolean wheel, WorkerPool pool) {
       this.n = n;
-      this.k = k;
+      this.k = pool.k;
+      this.wheel = wheel;
+      this.pool = pool;
       root = (int) Math.sqrt(n);
-      oddNumbers = new byte[(n / 16) + 1];
-      oddNumbersInThreads = new byte[k][(n / 16) + 1];
+      segmented = n >= SieveOfErastothenes.SEGMENTED_THRESHOLD;
+
+      if (wheel)
+        wheelNumbers = new byte[WheelSieve.bytes(n)];
+      else
+        // Rounded up to whole longs, so that it can be marked a word at a time
+        oddNumbers = new byte[((n / 16) / 8 + 1) * 8];
     }
 
 
@@ -33,28 +74,127 @@ import java.util.concurrent.CyclicBarrier;
     public int[] getPrimes() {
       if (n <= 1) return new int[0];
 
-      cb = new CyclicBarrier(k + 1);
+      if (wheel)
+        return getPrimesWheel();
+
+      if (segmented)
+        return getPrimesSegmented();
+
+      // Either one row per thread, or all threads marking oddNumbers itself.
+      // The workers only read the numbers up to root from it, and those are
+      // final once traversePartial is done.
+      if (!shared)
+        oddNumbersInThreads = new byte[k][oddNumbers.length];
+
+      // Starting from PATTERN, so that marking starts at 17. The rows are
+      // merged into oddNumbers, which keeps the pattern.
+      int first = 1;
+      if (presieve) {
+        SieveOfErastothenes.presieve(oddNumbers, 0, oddNumbers.length);
+        first = SieveOfErastothenes.PRESIEVED[SieveOfErastothenes.PRESIEVED.length - 1];
+      }
+
       // Sequentially finding all primes up to root
-      int startInd = nextPrime(1);
+      int startInd = nextPrime(first);
       traversePartial(startInd);
       
-      // Initializing all threads
+      // Giving each thread its first prime
+      int[] starts = new int[k];
       for (int i = 0; i < k; i++) {
-        new Thread(new Worker(startInd, i)).start();
+        starts[i] = startInd;
         startInd = nextPrime(startInd);
       }
-      try {
-        cb.await();
-      } catch (Exception e) {
-        return null;
-      }
+      pool.run(i -> new Worker(starts[i], i).run());
+
+      if (!shared)
+        concatenateArrays();
+
+      return collectPrimes();
+    }
+
+
+    /**
+     * Performs the sieve with each thread owning a disjoint block of the
+     * shared bitmap, which it sieves in cache sized segments. There are no
+     * per thread copies of the bitmap and no merging afterwards.
+     * @return An array containing all the primes up to and including 'n'.
+     */
+    private int[] getPrimesSegmented() {
+      // Sequentially finding all primes up to root
+      int[] basePrimes = presieve
+        ? SieveOfErastothenes.withoutPresieved(basePrimes())
+        : basePrimes();
 
-      concatenateArrays();
+      pool.run(i -> new SegmentWorker(i, basePrimes).run());
 
       return collectPrimes();
     }
 
 
+    /**
+     * Performs the sieve on the mod-30 wheel layout, with each thread owning
+     * a disjoint block of the shared bitmap.
+     * @return An array containing all the primes up to and including 'n'.
+     */
+    private int[] getPrimesWheel() {
+      int[] basePrimes = WheelSieve.basePrimes(n);
+
+      pool.run(i -> {
+        int low = (int) ((long) wheelNumbers.length * i / k);
+        int high = (int) ((long) wheelNumbers.length * (i + 1) / k);
+        WheelSieve.sieveBlock(wheelNumbers, basePrimes, low, high, presieve);
+      });
+
+      int[] primes = new PrimeCollector(wheelNumbers, n, true, pool).collect();
+      numOfPrimes = primes.length;
+      return primes;
+    }
+
+
+    class SegmentWorker implements Runnable {
+      /**
+       * Declaring local variables for each thread
+       */
+      int low, high;
+      int[] basePrimes;
+
+      /**
+       * Constructor that initializes local thread variables. Thread 'i' owns
+       * the bytes [low, high) of the bitmap.
+       */
+      public SegmentWorker(int i, int[] basePrimes) {
+        this.low = (int) ((long) oddNumbers.length * i / k);
+        this.high = (int) ((long) oddNumbers.length * (i + 1) / k);
+        this.basePrimes = basePrimes;
+      }
+
+      /**
+       * Sieving the thread's block one segment at a time
+       */
+      public void run() {
+        int[] next = new int[basePrimes.length];
+        int from = low * 8;
+
+        // Finding the first multiple of each prime inside the block, where
+        // bit j in the bitmap represents the odd number 2j + 1
+        for (int i = 0; i < basePrimes.length; i++) {
+          int prime = basePrimes[i];
+          int j = (prime * prime) >>> 1;
+          if (j < from)
+            j += (from - j + prime - 1) / prime * prime;
+          next[i] = j;
+        }
+
+        for (int segment = low; segment < high; segment += SieveOfErastothenes.SEGMENT_BYTES) {
+          int end = Math.min(segment + SieveOfErastothenes.SEGMENT_BYTES, high);
+          if (presieve)
+            SieveOfErastothenes.presieve(oddNumbers, segment, end);
+          SieveOfErastothenes.crossOffSegment(oddNumbers, basePrimes, next, end * 8);
+        }
+      }
+    }
+
+
     class Worker implements Runnable {
       /**
        * Declaring local variables for each thread
@@ -79,7 +219,10 @@ import java.util.concurrent.CyclicBarrier;
 
           // Performing the sieve
           while (prime != -1) {
-            traverse(prime);
+            if (shared)
+              traverseShared(prime);
+            else
+              traverse(prime);
 
             // Skips k prime numbers 
             for(int i = 0; i < k; i++) {
@@ -88,12 +231,6 @@ import java.util.concurrent.CyclicBarrier;
                 break;
             }
           }
-          
-          try {
-            cb.await();
-          } catch (Exception e) {
-            return;
-          }
         }
 
 
@@ -114,9 +251,58 @@ import java.util.concurrent.CyclicBarrier;
          * @param prime The prime used to mark the composite numbers.
          */
         private void traverse(int prime) {  
-          for (int i = prime*prime; i <= n; i += prime * 2) {  
-              this.mark(i);
+          for (long i = (long) prime * prime; i <= n; i += prime * 2) {  
+              this.mark((int) i);
+          }
+        }
+
+
+        /**
+         * Marks all odd number multiples of 'prime', starting from prime * prime,
+         * in the bitmap shared by all threads. The bits of one word are
+         * gathered into a mask first, so a word costs one atomic OR no matter
+         * how many multiples of 'prime' it holds. A single thread owns every
+         * word, and uses plain stores instead.
+         *
+         * Only used when the 'shared' field is set and n is below
+         * SEGMENTED_THRESHOLD, since the segmented mode ignores the field.
+         * It has only been measured on a single core, which shows the cost
+         * of the atomic OR but nothing about contention between cores.
+         * @param prime The prime used to mark the composite numbers.
+         */
+        private void traverseShared(int prime) {
+          int word = -1;
+          long mask = 0;
+
+          // Bit j of the bitmap represents the odd number 2j + 1
+          for (long i = (long) prime * prime; i <= n; i += prime * 2) {
+            int bit = (int) (i >>> 1);
+
+            if ((bit >>> 6) != word) {
+              if (mask != 0)
+                orWord(word, mask);
+              word = bit >>> 6;
+              mask = 0;
+            }
+            mask |= 1L << bit;
           }
+
+          if (mask != 0)
+            orWord(word, mask);
+        }
+
+
+        /**
+         * Sets the bits of 'mask' in a word of the shared bitmap, with
+         * getAndBitwiseOr when other threads may set bits of the same word.
+         * @param word The index of the word.
+         * @param mask The bits to set.
+         */
+        private void orWord(int word, long mask) {
+          if (k == 1)
+            WORDS.set(oddNumbers, word * 8, (long) WORDS.get(oddNumbers, word * 8) | mask);
+          else
+            WORDS.getAndBitwiseOr(oddNumbers, word * 8, mask);
         }
     }
 
@@ -151,27 +337,34 @@ import java.util.concurrent.CyclicBarrier;
 
 
     /**
-     * Iterates through the array to count the number of primes found,
-     * creates an array of that size and populates the new array with the primes.
-     * @return An array containing all the primes up to and including 'n'.
+     * Sieves the numbers up to root sequentially.
+     * @return An array containing all the odd primes up to and including root.
      */
-    private int[] collectPrimes() {
-      numOfPrimes = 1;
-  
-      for (int i = 3; i <= n; i += 2)
-        if (isPrime(i))
-          numOfPrimes++;
+    private int[] basePrimes() {
+      int start = nextPrime(1);
+      traversePartial(start);
 
-      int[] primes = new int[numOfPrimes];
- 
-      primes[0] = 2;
-      int j = 1;
-  
-      for (int i = 3; i <= n; i += 2)
-        if (isPrime(i)) {
+      int count = 0;
+      for (int prime = start; prime != -1; prime = nextPrime(prime))
+        count++;
 
-          primes[j++] = i;
-        }
+      int[] basePrimes = new int[count];
+      int j = 0;
+      for (int prime = start; prime != -1; prime = nextPrime(prime))
+        basePrimes[j++] = prime;
+
+      return basePrimes;
+    }
+
+
+    /**
+     * Collects the primes from the bitmap in parallel, one 64-bit word at a
+     * time.
+     * @return An array containing all the primes up to and including 'n'.
+     */
+    private int[] collectPrimes() {
+      int[] primes = new PrimeCollector(oddNumbers, n, false, pool).collect();
+      numOfPrimes = primes.length;
       return primes;
     }
 
@@ -183,8 +376,8 @@ import java.util.concurrent.CyclicBarrier;
      * @param high  The max value to mark.
      */
     private void traverse(int prime, int high) {  
-      for (int i = prime*prime; i <= high; i += prime * 2) {  
-          mark(i);
+      for (long i = (long) prime * prime; i <= high; i += prime * 2) {  
+          mark((int) i);
       }
     }
   
@@ -240,7 +433,42 @@ import java.util.concurrent.CyclicBarrier;
   
 
     /**
-     * Expects one or two positive integers as an argument.
+     * Compares the row per thread design with the shared bitmap, both
+     * without segmentation, and prints the median time of each.
+     * @param n    The number up to which primes are found.
+     * @param k    Number of cores to utilize.
+     * @param runs Number of runs of each design.
+     */
+    static void benchmark(int n, int k, int runs) {
+      String[] names = {"rows", "shared"};
+      int[] expected = new SieveOfErastothenes(n).getPrimes();
+
+      System.out.printf("%-10s%-15s%n", "design", "median(ms)");
+      for (int design = 0; design < names.length; design++) {
+        double[] times = new double[runs];
+
+        for (int r = 0; r < runs; r++) {
+          SieveOfErastothenesPara sieve = new SieveOfErastothenesPara(n, k);
+          sieve.segmented = false;
+          sieve.shared = design == 1;
+
+          long start = System.nanoTime();
+          int[] primes = sieve.getPrimes();
+          times[r] = (System.nanoTime() - start) / 1000000.0;
+
+          if (!Arrays.equals(primes, expected))
+            System.out.println("The " + names[design] + " design found the wrong primes");
+        }
+
+        Arrays.sort(times);
+        System.out.printf("%-10s%-15.2f%n", names[design], times[runs / 2]);
+      }
+    }
+
+
+    /**
+     * Expects one or two positive integers as an argument, and an optional
+     * flag to benchmark the shared bitmap.
      * @param args Contains the number up to which we want to find prime numbers
      * and the number of cores to utilize.
      */
@@ -258,9 +486,16 @@ import java.util.concurrent.CyclicBarrier;
 
         if(n <= 0) throw new Exception();
         if(k <= 0) throw new Exception();
+        if(args.length > 2 && !args[2].equals("-b")) throw new Exception();
       } catch(Exception e) {
         System.out.println("Correct use of program is: " +
-        "java SieveOfEratosthenes <n> <k> where <n> and <k> are positive integers.");
+        "java SieveOfEratosthenes <n> <k> -b where <n> and <k> are positive integers " +
+        "and -b is an optional flag to benchmark the shared bitmap against one row per thread.");
+        return;
+      }
+
+      if (args.length > 2) {
+        benchmark(n, k, 7);
         return;
       }
   
@@ -0,0 +1,332 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A sieve that stores the smallest prime factor of every number in a range,
+ * so that any number in it can be factorized by table lookups alone.
+ *
+ * Idea:
+ * Instead of marking a number as composite, the sieve writes the prime that
+ * crosses it off. Since the primes are used in increasing order, the first
+ * prime to reach a number is its smallest prime factor, and later primes
+ * leave it alone. A number v is then factorized by looking up its smallest
+ * prime factor p, and continuing with v / p. This takes one lookup per
+ * prime factor, which is at most log2(v) lookups.
+ *
+ * Implementation:
+ * Like the odd-only layout of SieveOfErastothenes, only odd numbers are
+ * stored, as an int[] where index j holds the number first + 2j. Primes are
+ * stored as 0, and even numbers have the smallest factor 2 without a lookup.
+ * The table can be limited to a window [lo, hi]. A number whose cofactor
+ * falls below the window is then finished by trial division with the primes
+ * up to the square root of hi, since there is no table for it.
+ *
+ * The table is built like the segmented mode of SieveOfErastothenesPara:
+ * each thread owns a disjoint block of the table, which it sieves one cache
+ * sized segment at a time with the base primes up to the square root of hi.
+ * The threads are those of a WorkerPool, so a failure in one of them is
+ * thrown to the caller by WorkerPool.run().
+ */
+
+
+ class SmallestFactorSieve {
+
+    /**
+     * Number of ints in the table sieved at a time, the same number of bytes
+     * as a segment of SieveOfErastothenes.
+     */
+    static final int SEGMENT_INTS = SieveOfErastothenes.SEGMENT_BYTES / 4;
+
+    /**
+     * Declaring all the global variables
+     *
+     */
+    int lo, hi, k, first;
+    int[] primes, smallest;
+    WorkerPool pool;
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param n The largest number in the table.
+     * @param k Number of threads to build the table and factorize with.
+     */
+    SmallestFactorSieve(int n, int k) {
+      this(1, n, k);
+    }
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param lo The smallest number in the table.
+     * @param hi The largest number in the table.
+     * @param k  Number of threads to build the table and factorize with.
+     */
+    SmallestFactorSieve(int lo, int hi, int k) {
+      this(lo, hi, (k == 1) ? null : WorkerPool.common(k));
+    }
+
+
+    /**
+     * Constructor that initializes the global variables
+     * @param lo   The smallest number in the table.
+     * @param hi   The largest number in the table.
+     * @param pool The threads to build the table and factorize with, or null
+     *             to use the calling thread.
+     */
+    SmallestFactorSieve(int lo, int hi, WorkerPool pool) {
+      if (lo < 1 || hi < lo || hi == Integer.MAX_VALUE)
+        throw new IllegalArgumentException("Can not build a table for [" + lo + ", " + hi + "]");
+
+      this.lo = lo;
+      this.hi = hi;
+      this.k = (pool == null) ? 1 : pool.k;
+      this.pool = pool;
+      first = lo | 1;
+      smallest = new int[(first > hi) ? 0 : (hi - first) / 2 + 1];
+    }
+
+
+    /**
+     * Builds the table, with each thread sieving its own block of it. An
+     * exception in one of the threads is thrown here, after all threads are
+     * done.
+     * @return This sieve, for chaining.
+     */
+    SmallestFactorSieve build() {
+      primes = new SieveOfErastothenes((int) Math.sqrt(hi)).getPrimes();
+
+      run(i -> sieveBlock(first(smallest.length, i), first(smallest.length, i + 1)));
+
+      return this;
+    }
+
+
+    /**
+     * Runs a task on every thread of the pool, or on the calling thread if
+     * there is no pool.
+     * @param task Called once by each thread with the thread's index in
+     *             [0, k).
+     */
+    private void run(IntConsumer task) {
+      if (pool == null)
+        task.accept(0);
+      else
+        pool.run(task);
+    }
+
+
+    /**
+     * Finds the first index of a thread's block when 'length' indices are
+     * split into k blocks.
+     * @param  length The number of indices.
+     * @param  i      The index of the thread, or k for the end of the last
+     *                block.
+     * @return        The first index of block 'i'.
+     */
+    private int first(int length, int i) {
+      return (int) ((long) length * i / k);
+    }
+
+
+    /**
+     * Writes the smallest prime factor into the indices [low, high) of the
+     * table, one segment at a time.
+     * @param low  The first index of the block.
+     * @param high The index after the last one of the block.
+     */
+    private void sieveBlock(int low, int high) {
+      int[] next = new int[primes.length];
+      long from = first + 2L * low;
+
+      // Finding the first odd multiple of each odd prime inside the block,
+      // not below prime*prime, as an index into the table
+      for (int i = 1; i < primes.length; i++) {
+        long prime = primes[i];
+        long multiple = Math.max(prime * prime, (from + prime - 1) / prime * prime);
+        if ((multiple & 1) == 0)
+          multiple += prime;
+        next[i] = (int) Math.min((multiple - first) / 2, Integer.MAX_VALUE);
+      }
+
+      for (int segment = low; segment < high; segment += SEGMENT_INTS) {
+        int end = Math.min(segment + SEGMENT_INTS, high);
+
+        // Odd multiples of a prime are 'prime' indices apart
+        for (int i = 1; i < primes.length; i++) {
+          int prime = primes[i];
+          int j = next[i];
+
+          for (; j < end; j += prime)
+            if (smallest[j] == 0)
+              smallest[j] = prime;
+
+          next[i] = j;
+        }
+      }
+    }
+
+
+    /**
+     * Finds the smallest prime factor of a number in the table.
+     * @param  v A number in [lo, hi], at least 2.
+     * @return   The smallest prime factor of 'v'.
+     */
+    int smallestFactor(int v) {
+      if ((v & 1) == 0)
+        return 2;
+
+      int p = smallest[(v - first) >>> 1];
+      return (p == 0) ? v : p;
+    }
+
+
+    /**
+     * Finds the prime factors of a number in the table.
+     * @param  v A number in [lo, hi].
+     * @return   The prime factors of 'v' in increasing order, with
+     *           multiplicity. Empty for 1.
+     */
+    int[] factor(int v) {
+      int[] factors = new int[31];
+      return Arrays.copyOf(factors, factor(v, factors));
+    }
+
+
+    /**
+     * Finds the prime factors of a number in the table without allocating.
+     * @param  v       A number in [lo, hi].
+     * @param  factors Receives the prime factors in increasing order, with
+     *                 multiplicity. 31 entries are always enough.
+     * @return         The number of prime factors written.
+     */
+    int factor(int v, int[] factors) {
+      return factor(v, factors, 0);
+    }
+
+
+    /**
+     * Finds the prime factors of a number in the table, and writes them into
+     * 'factors' starting at 'offset'.
+     * @param  v       A number in [lo, hi].
+     * @param  factors Receives the prime factors in increasing order, with
+     *                 multiplicity.
+     * @param  offset  The index in 'factors' of the first prime factor.
+     * @return         The number of prime factors written.
+     */
+    private int factor(int v, int[] factors, int offset) {
+      if (v < lo || v > hi)
+        throw new IllegalArgumentException(v + " is not in [" + lo + ", " + hi + "]");
+
+      int count = offset;
+
+      while (v >= lo && v > 1) {
+        int p = smallestFactor(v);
+        factors[count++] = p;
+        v /= p;
+      }
+
+      // The rest is below the window, and has no prime factor smaller than
+      // the last one found
+      for (int i = 0; v > 1 && i < primes.length; i++) {
+        int prime = primes[i];
+        if ((long) prime * prime > v)
+          break;
+
+        while (v % prime == 0) {
+          factors[count++] = prime;
+          v /= prime;
+        }
+      }
+      if (v > 1)
+        factors[count++] = v;
+
+      return count - offset;
+    }
+
+
+    /**
+     * Finds the prime factors of a batch of numbers in the table, with the
+     * batch split into one block per thread. The factors are returned in one
+     * flat array instead of one array per number, so that millions of
+     * numbers do not mean millions of small arrays. Like PrimeCollector, each
+     * thread first counts the factors in its block, and a prefix sum over the
+     * counts then tells each thread where to write.
+     * @param  values  The numbers to factorize, all in [lo, hi].
+     * @param  offsets Receives values.length + 1 entries, where the factors
+     *                 of values[i] are at [offsets[i], offsets[i + 1]) of the
+     *                 returned array.
+     * @return         The prime factors of all the numbers, each number's in
+     *                 increasing order.
+     * @throws IllegalArgumentException If a value is not in [lo, hi], or
+     *                                  'offsets' is too short. Nothing has
+     *                                  been written then.
+     */
+    int[] factor(int[] values, int[] offsets) {
+      // Checking everything before any thread starts, so that a bad value
+      // is reported here instead of in the middle of a phase
+      if (offsets.length <= values.length)
+        throw new IllegalArgumentException("Need " + (values.length + 1) + " offsets, not " + offsets.length);
+      for (int v : values)
+        if (v < lo || v > hi)
+          throw new IllegalArgumentException(v + " is not in [" + lo + ", " + hi + "]");
+
+      // Counting the factors of each block, then writing them once the
+      // prefix sums are done
+      run(i -> {
+        int[] buffer = new int[31];
+        for (int j = first(values.length, i); j < first(values.length, i + 1); j++)
+          offsets[j + 1] = factor(values[j], buffer);
+      });
+
+      offsets[0] = 0;
+      for (int i = 1; i <= values.length; i++)
+        offsets[i] += offsets[i - 1];
+      int[] factors = new int[offsets[values.length]];
+
+      run(i -> {
+        for (int j = first(values.length, i); j < first(values.length, i + 1); j++)
+          factor(values[j], factors, offsets[j]);
+      });
+
+      return factors;
+    }
+
+
+    /**
+     * Expects one or two positive integers as arguments.
+     * @param args Contains the largest number in the table and the number of
+     * cores to utilize.
+     */
+    public static void main(String[] args) {
+
+      int n;
+      int k;
+
+      try {
+        n = Integer.parseInt(args[0]);
+        k = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        if(n <= 0) throw new Exception();
+        if(k <= 0) throw new Exception();
+      } catch(Exception e) {
+        System.out.println("Correct use of program is: " +
+        "java SmallestFactorSieve <n> <k> where <n> and <k> are positive integers.");
+        return;
+      }
+
+      long start = System.nanoTime();
+      SmallestFactorSieve sieve = new SmallestFactorSieve(n, k).build();
+      long end = System.nanoTime();
+      System.out.printf("Built table up to %d in %.2f ms%n", n, (end - start) / 1000000.0);
+
+      int[] values = new int[Math.min(n, 1000000)];
+      for (int i = 0; i < values.length; i++)
+        values[i] = n - i;
+
+      start = System.nanoTime();
+      sieve.factor(values, new int[values.length + 1]);
+      end = System.nanoTime();
+      System.out.printf("Factorized the %d largest numbers in %.2f ms%n", values.length, (end - start) / 1000000.0);
+    }
+  }
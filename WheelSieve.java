@@ -0,0 +1,215 @@
+import java.util.Arrays;
+
+/**
+ * Mod-30 wheel layout for the Sieve Of Eratosthenes.
+ *
+ * Idea:
+ * Only 8 out of every 30 numbers are coprime to 2, 3 and 5, namely those
+ * congruent to 1, 7, 11, 13, 17, 19, 23 and 29 modulo 30. Those are the only
+ * numbers, apart from 2, 3 and 5 themselves, that can be prime, and they fit
+ * exactly in a single byte. Compared to the odd-only layout, which stores 16
+ * numbers per byte, this uses about 47% less memory, and there is no marking
+ * to do for the multiples of 3 and 5.
+ *
+ * You can think of the first byte in the array (i.e. byte at index 0) like this:
+ *
+ * |  29  |  23  |  19  |  17  |  13  |  11  |  7  |  1  |   <-- The first byte
+ *
+ * and byte i holds the numbers 30i + 1, 30i + 7, ..., 30i + 29.
+ *
+ *
+ * Implementation:
+ * For a prime p, all multiples p * m with m coprime to 30 fall into one of
+ * 8 residue classes of m. Within a class, consecutive multiples are 30p apart,
+ * which is exactly p bytes, and they always land on the same bit. So each
+ * prime is marked as 8 strided loops with a constant bit mask.
+ */
+
+
+ class WheelSieve {
+
+    /**
+     * The residues modulo 30 represented in each byte, by bit index.
+     */
+    static final int[] RESIDUES = {1, 7, 11, 13, 17, 19, 23, 29};
+
+    /**
+     * The bit index of each residue modulo 30, or -1 if it is not in the wheel.
+     */
+    static final int[] BIT = new int[30];
+
+    static {
+      Arrays.fill(BIT, -1);
+      for (int i = 0; i < RESIDUES.length; i++)
+        BIT[RESIDUES[i]] = i;
+    }
+
+    /**
+     * The primes that are crossed out by copying PATTERN into the bitmap
+     * instead of being marked one multiple at a time.
+     */
+    static final int[] PRESIEVED = {7, 11, 13};
+
+    /**
+     * The wheel bitmap of the multiples of PRESIEVED. It repeats itself every
+     * 7 * 11 * 13 = 1001 bytes.
+     */
+    static final byte[] PATTERN = pattern();
+
+
+    /**
+     * The number of bytes needed to hold all numbers up to 'n'.
+     * @param  n The largest number to represent.
+     * @return   The length of the bitmap.
+     */
+    static int bytes(int n) {
+      return (n / 30) + 1;
+    }
+
+
+    /**
+     * Finds the primes that are used to sieve a wheel bitmap up to 'n'.
+     * @param  n The largest number in the bitmap.
+     * @return   An array containing all the primes from 7 up to the square
+     *           root of 'n'.
+     */
+    static int[] basePrimes(int n) {
+      int[] primes = new SieveOfErastothenes((int) Math.sqrt(n)).getPrimes();
+      int start = 0;
+
+      while (start < primes.length && primes[start] < 7)
+        start++;
+
+      return Arrays.copyOfRange(primes, start, primes.length);
+    }
+
+
+    /**
+     * Sieves the bytes [low, high) of a wheel bitmap one segment at a time.
+     * Marks 1 as non-prime if it lies in the block.
+     * @param bits     The bitmap to mark.
+     * @param primes   The primes from 7 up to the square root of the largest
+     *                 number in the bitmap.
+     * @param low      The first byte of the block.
+     * @param high     The byte one past the end of the block.
+     * @param presieve If true, each segment is initialized from PATTERN and
+     *                 only the primes from 17 and up are marked.
+     */
+    static void sieveBlock(byte[] bits, int[] primes, int low, int high, boolean presieve) {
+      if (low == 0 && high > 0)
+        bits[0] |= 1;
+
+      if (presieve) {
+        int start = 0;
+        while (start < primes.length && primes[start] <= PRESIEVED[PRESIEVED.length - 1])
+          start++;
+        primes = Arrays.copyOfRange(primes, start, primes.length);
+      }
+
+      int[] next = firstMultiples(primes, low);
+
+      for (int segment = low; segment < high; segment += SieveOfErastothenes.SEGMENT_BYTES) {
+        int end = Math.min(segment + SieveOfErastothenes.SEGMENT_BYTES, high);
+        if (presieve)
+          presieve(bits, segment, end);
+        crossOffSegment(bits, primes, next, end);
+      }
+    }
+
+
+    /**
+     * Builds the repeating wheel bitmap of the multiples of PRESIEVED.
+     * @return The first 1001 bytes of the bitmap with only the multiples of
+     *         PRESIEVED marked.
+     */
+    private static byte[] pattern() {
+      int length = 1;
+      for (int prime : PRESIEVED)
+        length *= prime;
+
+      byte[] pattern = new byte[length];
+
+      for (int b = 0; b < length; b++)
+        for (int r = 0; r < 8; r++)
+          for (int prime : PRESIEVED)
+            if ((30 * b + RESIDUES[r]) % prime == 0)
+              pattern[b] |= 1 << r;
+
+      return pattern;
+    }
+
+
+    /**
+     * Initializes the bytes [low, high) of a wheel bitmap by copying PATTERN,
+     * so that the multiples of PRESIEVED are already crossed out.
+     * @param bits The bitmap to initialize.
+     * @param low  The first byte to initialize.
+     * @param high The byte one past the last byte to initialize.
+     */
+    static void presieve(byte[] bits, int low, int high) {
+      int offset = low % PATTERN.length;
+
+      for (int b = low; b < high; b += PATTERN.length - offset, offset = 0)
+        System.arraycopy(PATTERN, offset, bits, b, Math.min(PATTERN.length - offset, high - b));
+
+      // The first byte holds 1 to 29. 1 is not a prime, but 7, 11 and 13
+      // are, even though they are marked in the pattern.
+      if (low == 0 && high > 0)
+        bits[0] = (byte) ((PATTERN[0] & ~0b00001110) | 1);
+    }
+
+
+    /**
+     * Finds, for each prime and each of the 8 residue classes, the byte of
+     * the first multiple at or after byte 'low' that is at least prime * prime.
+     * @param  primes The primes to find multiples of.
+     * @param  low    The first byte to sieve.
+     * @return        An array where entry 8i + r is the byte of the next
+     *                multiple of primes[i] in residue class r.
+     */
+    static int[] firstMultiples(int[] primes, int low) {
+      int[] next = new int[primes.length * 8];
+
+      for (int i = 0; i < primes.length; i++) {
+        int prime = primes[i];
+
+        for (int r = 0; r < 8; r++) {
+          // The first m >= prime with m congruent to RESIDUES[r] modulo 30
+          long m = prime + Math.floorMod(RESIDUES[r] - prime, 30);
+          long b = (prime * m) / 30;
+
+          if (b < low)
+            b += (low - b + prime - 1) / prime * prime;
+
+          next[i * 8 + r] = (int) Math.min(b, Integer.MAX_VALUE);
+        }
+      }
+      return next;
+    }
+
+
+    /**
+     * Marks the multiples of each prime up to, but not including, byte 'to'.
+     * @param bits   The bitmap to mark.
+     * @param primes The primes to mark multiples of.
+     * @param next   The byte of the next multiple per prime and residue class,
+     *               as returned by firstMultiples(). Updated to the first
+     *               multiple at or past 'to'.
+     * @param to     The byte one past the end of the segment.
+     */
+    static void crossOffSegment(byte[] bits, int[] primes, int[] next, int to) {
+      for (int i = 0; i < primes.length; i++) {
+        int prime = primes[i];
+
+        for (int r = 0; r < 8; r++) {
+          int mask = 1 << BIT[(prime % 30) * RESIDUES[r] % 30];
+          int b = next[i * 8 + r];
+
+          for (; b < to; b += prime)
+            bits[b] |= mask;
+
+          next[i * 8 + r] = b;
+        }
+      }
+    }
+  }
@@ -0,0 +1,189 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * A fixed set of k threads that are started once and reused for every
+ * parallel phase, instead of starting k new threads each time.
+ *
+ * Idea:
+ * The parallel sieves and factorizations start k threads and build a new
+ * CyclicBarrier for every call, and the median runs make many such calls.
+ * For small n, starting and stopping the threads is a large part of the
+ * time. Here the threads stay alive between calls, parked on one barrier
+ * that is reused for every phase.
+ *
+ * Implementation:
+ * One CyclicBarrier of k + 1 parties is passed twice per phase. The caller
+ * publishes the task and awaits the barrier, which releases the workers.
+ * Each worker runs the task with its own index in [0, k) and awaits the
+ * barrier again, which the caller awaits as well, so the caller returns when
+ * all workers are done. A phase that needs a sequential step between two
+ * parallel parts, like the prefix sum of PrimeCollector, is two calls to
+ * run() with the step in between. The barrier orders all writes of a phase
+ * before the reads of the next, just like a barrier of new threads does.
+ *
+ * Only one phase runs at a time, and a task must not start a phase on its
+ * own pool. The threads are daemon threads, so a pool that is never shut
+ * down does not keep the program alive. A caller that is interrupted while
+ * it waits breaks the barrier. It gets an IllegalStateException with its
+ * interrupt flag set again, and the broken pool is retired.
+ *
+ * The work-stealing engine needs a ForkJoinPool rather than phases, so a
+ * shared ForkJoinPool per k is kept here as well, next to the shared pools.
+ */
+
+class WorkerPool {
+
+    /**
+     * Pools shared by every engine that is not given its own, one per k.
+     */
+    private static final ConcurrentHashMap<Integer, WorkerPool> COMMON = new ConcurrentHashMap<>();
+
+    /**
+     * Fork/join pools shared by every call of the work-stealing engine, one
+     * per k.
+     */
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> FORK_JOIN = new ConcurrentHashMap<>();
+
+    /**
+     * Declaring all the global variables
+     */
+    int k;
+    Thread[] threads;
+    CyclicBarrier cb;
+    volatile IntConsumer task;
+    volatile boolean shutdown = false;
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+
+    /**
+     * Constructor that starts the threads of the pool.
+     * @param k Number of threads.
+     */
+    WorkerPool(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("Can not make a pool of " + k + " threads");
+
+        this.k = k;
+        cb = new CyclicBarrier(k + 1);
+        threads = new Thread[k];
+
+        for (int i = 0; i < k; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> work(index), "worker-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+
+    /**
+     * Finds the shared pool of k threads, starting it on first use.
+     * @param  k Number of threads.
+     * @return   The pool.
+     */
+    static WorkerPool common(int k) {
+        return COMMON.computeIfAbsent(k, WorkerPool::new);
+    }
+
+
+    /**
+     * Finds the shared fork/join pool of k threads, starting it on first use.
+     * Its threads are daemon threads, and are never shut down.
+     * @param  k Number of threads.
+     * @return   The pool.
+     */
+    static ForkJoinPool forkJoin(int k) {
+        return FORK_JOIN.computeIfAbsent(k, ForkJoinPool::new);
+    }
+
+
+    /**
+     * Runs a task on every thread of the pool, and waits for all of them.
+     * @param task Called once by each thread with the thread's index in
+     *             [0, k).
+     */
+    synchronized void run(IntConsumer task) {
+        for (Thread thread : threads)
+            if (thread == Thread.currentThread())
+                throw new IllegalStateException("A task can not run a phase on its own pool");
+        if (shutdown)
+            throw new IllegalStateException("The pool is shut down");
+
+        this.task = task;
+        try {
+            await();
+            await();
+        } catch (IllegalStateException e) {
+            // A broken barrier can not be reused, so the next caller of
+            // common(k) gets a new pool instead of this one
+            shutdown = true;
+            COMMON.remove(k, this);
+            throw e;
+        } finally {
+            this.task = null;
+        }
+
+        Throwable t = failure.getAndSet(null);
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+    }
+
+
+    /**
+     * Stops the threads of the pool once they are idle.
+     */
+    synchronized void shutdown() {
+        if (shutdown)
+            return;
+        shutdown = true;
+        await();
+        COMMON.remove(k, this);
+    }
+
+
+    /**
+     * The loop of each thread: waiting for a phase, running the task, and
+     * waiting for the other threads to finish it.
+     * @param index The index of the thread.
+     */
+    private void work(int index) {
+        try {
+            while (true) {
+                await();
+                if (shutdown)
+                    return;
+
+                try {
+                    task.accept(index);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+
+                await();
+            }
+        } catch (IllegalStateException e) {
+            // The barrier is broken, and the pool with it
+        }
+    }
+
+
+    /**
+     * Waits on the barrier of the pool.
+     */
+    private void await() {
+        try {
+            cb.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting on the worker pool", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Worker pool barrier broken", e);
+        }
+    }
+}